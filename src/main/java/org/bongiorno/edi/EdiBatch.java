@@ -0,0 +1,134 @@
+package org.bongiorno.edi;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Converts many files at once on a work-stealing pool. Files are started largest first, so the big ones aren't left
+ * running alone at the end, and a file that is big next to the rest (more than its share of the whole batch) also
+ * gets to parse its transaction sets on the pool.
+ */
+final class EdiBatch {
+
+    /**
+     * Converts one file.
+     */
+    interface Conversion {
+
+        /**
+         * @param pool to parse transaction sets on, or null to parse the file on the calling thread
+         */
+        void convert(Path in, Path out, ForkJoinPool pool) throws Exception;
+    }
+
+    private final Path base;
+
+    private final List<Path> inputs;
+
+    private EdiBatch(Path base, List<Path> inputs) {
+        this.base = base;
+        this.inputs = inputs;
+    }
+
+    /**
+     * @param dirOrGlob a directory, whose regular files are all converted, or a glob like in/**&#47;*.dat, matched
+     *                  against the paths below the part of it without wildcards
+     */
+    static EdiBatch of(String dirOrGlob) throws IOException {
+        Path dir = Paths.get(dirOrGlob);
+        if (Files.isDirectory(dir)) {
+            try (Stream<Path> files = Files.list(dir)) {
+                return new EdiBatch(dir, files.filter(Files::isRegularFile).collect(Collectors.toList()));
+            }
+        }
+        String glob = dirOrGlob.replace('\\', '/');
+        int wildcard = firstWildcard(glob);
+        int slash = glob.lastIndexOf('/', wildcard);
+        Path base = Paths.get(slash < 0 ? "." : glob.substring(0, slash + 1));
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob.substring(slash + 1));
+        try (Stream<Path> files = Files.walk(base)) {
+            return new EdiBatch(base, files.filter(Files::isRegularFile)
+                    .filter(file -> matcher.matches(base.relativize(file)))
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    private static int firstWildcard(String glob) {
+        for (int i = 0; i < glob.length(); ++i) {
+            if ("*?[{".indexOf(glob.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Not a directory or a glob: " + glob);
+    }
+
+    List<Path> getInputs() {
+        return inputs;
+    }
+
+    /**
+     * Converts every input into outDir, keeping the path it had below the batch's base directory and swapping its
+     * extension. Failures are reported on stderr and don't stop the rest; what a failed file had written is deleted.
+     *
+     * @return the number of files that failed
+     */
+    int run(ForkJoinPool pool, Path outDir, String extension, Conversion conversion) throws IOException {
+        Map<Path, Long> sizes = new HashMap<>();
+        long total = 0;
+        for (Path input : inputs) {
+            long size = Files.size(input);
+            sizes.put(input, size);
+            total += size;
+        }
+        List<Path> bySize = new ArrayList<>(inputs);
+        bySize.sort(Comparator.comparing(sizes::get, Comparator.reverseOrder()));
+        long share = total / pool.getParallelism();
+
+        AtomicInteger failed = new AtomicInteger();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (Path in : bySize) {
+            Path out = output(outDir, in, extension);
+            ForkJoinPool filePool = sizes.get(in) > share && pool.getParallelism() > 1 ? pool : null;
+            // submitted from outside the pool, so they're picked up in order
+            tasks.add(pool.submit(() -> {
+                try {
+                    Files.createDirectories(out.getParent());
+                    conversion.convert(in, out, filePool);
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    System.err.println("Failed: " + in + ": " + e);
+                    // no half written output left behind to be mistaken for a result
+                    Files.deleteIfExists(out);
+                }
+                return null;
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        return failed.get();
+    }
+
+    private Path output(Path outDir, Path in, String extension) {
+        String name = in.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        name = (dot > 0 ? name.substring(0, dot) : name) + "." + extension;
+        Path relative = base.relativize(in);
+        Path parent = relative.getParent();
+        return (parent == null ? outDir : outDir.resolve(parent.toString())).resolve(name);
+    }
+}
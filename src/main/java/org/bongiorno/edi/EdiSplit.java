@@ -0,0 +1,50 @@
+package org.bongiorno.edi;
+
+import org.bongiorno.edi.reader.EdiSplitter;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Splits an interchange file into interchanges of a few transaction sets each, copying them without parsing; see
+ * {@link EdiSplitter}.
+ */
+public class EdiSplit {
+
+    @Option(name = "--help", aliases = {"-?", "-h"}, help = true, usage = "Print this message")
+    private boolean help;
+
+    @Option(name = "--in", aliases = "-i", required = true, usage = "Edi input file")
+    private File inEdi;
+
+    @Option(name = "--out-dir", required = true, usage = "Where to write the pieces, named after the input with a number added")
+    private File outDir;
+
+    @Option(name = "--transactions", aliases = "-n", usage = "Transaction sets per piece")
+    private int transactions = 1;
+
+    public static void main(String[] args) throws CmdLineException, IOException {
+        EdiSplit app = new EdiSplit();
+        CmdLineParser cmdLineParser = new CmdLineParser(app);
+        cmdLineParser.parseArgument(args);
+
+        if(app.help){
+            cmdLineParser.printUsage(System.out);
+            System.exit(0);
+        }
+        for (Path piece : app.run()) {
+            System.out.println(piece);
+        }
+    }
+
+    private Iterable<Path> run() throws IOException {
+        Path out = Files.createDirectories(outDir.toPath());
+        return EdiSplitter.split(inEdi.toPath(), Charset.defaultCharset(), transactions, out);
+    }
+}
@@ -1,8 +1,16 @@
 package org.bongiorno.edi;
 
+import org.bongiorno.edi.reader.Checkpoint;
 import org.bongiorno.edi.reader.EdiReader;
-import org.bongiorno.edi.reader.loops.EdiStructure;
+import org.bongiorno.edi.reader.EdiReaderConfig;
+import org.bongiorno.edi.reader.EdiReaderPool;
+import org.bongiorno.edi.reader.Projection;
+import org.bongiorno.edi.reader.loops.StructureRegistry;
 import org.bongiorno.edi.reader.tokenizer.EDIType;
+import org.bongiorno.edi.reader.tokenizer.HeaderSniffer;
+import org.bongiorno.edi.reader.tokenizer.InterchangeHeader;
+import org.bongiorno.edi.writer.JsonWriter;
+import org.bongiorno.edi.writer.XmlWriter;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
@@ -10,41 +18,72 @@ import org.kohsuke.args4j.OptionDef;
 import org.kohsuke.args4j.spi.OneArgumentOptionHandler;
 import org.kohsuke.args4j.spi.Setter;
 import org.xml.sax.InputSource;
-import org.xml.sax.XMLReader;
+import org.xml.sax.SAXException;
 
 import javax.xml.bind.JAXBException;
-import javax.xml.transform.Transformer;
+import javax.xml.transform.Templates;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * @author chribong
  */
 public class EdiToXml {
 
+    private static final long CHECKPOINT_INTERVAL = 64L * 1024 * 1024;
+
     /*
 Help options
  */
     @Option(name = "--help", aliases = {"-?", "-h"}, help = true, usage = "Print this message")
     private boolean help;
 
-    @Option(name = "--out", aliases = "-o", handler = OutputStreamOptionHandler.class, required = false, usage = "Destination file.")
-    private OutputStream destination;
+    @Option(name = "--out", aliases = "-o", required = false, usage = "Destination file, - for standard out.")
+    private File destination;
 
 
-    @Option(name = "--in", aliases = "-i", handler = InputStreamOptionHandler.class, usage = "Edi input")
-    private BufferedInputStream inEdi;
+    @Option(name = "--in", aliases = "-i", usage = "Edi input")
+    private File inEdi;
 
     @Option(name = "--style", aliases = "-s", usage = "Style Sheet to startElement", handler = InputStreamOptionHandler.class)
     private InputStream styleSheet;
 
+    @Option(name = "--format", aliases = "-f", usage = "Output format, XML or JSON. A style sheet only applies to XML")
+    private Format format = Format.XML;
+
+    @Option(name = "--indent", usage = "Spaces to indent XML by when there's no style sheet, 0 for none")
+    private int indent = 3;
+
+    @Option(name = "--project", aliases = "-p", usage = "Only output these loops and segments, comma separated, e.g. CLM,Loop2400/SV2 or Loop2300")
+    private String project;
+
+    @Option(name = "--threads", aliases = "-t", usage = "Parse the transaction sets of an input file on this many threads. With --batch, the number of files converted at once, every core by default")
+    private int threads = 1;
+
+    @Option(name = "--batch", aliases = "-b", usage = "Convert every file in a directory, or every file matching a glob like 'in/**/*.dat', into --out-dir")
+    private String batch;
+
+    @Option(name = "--out-dir", usage = "Where --batch writes its output, one file per input, named after it")
+    private File outDir;
+
+    @Option(name = "--checkpoint", usage = "Keep a checkpoint of the conversion in this file, and if it's there already, carry on from it. Needs an --in and an --out file, and XML output with no style sheet")
+    private File checkpoint;
+
     @Option(name = "--version", aliases = "-v", usage = "output the version of this app", help = true)
     private boolean displayVersion;
 
@@ -68,57 +107,216 @@ Help options
             System.exit(0);
         }
 
-        app.run();
+        int status = app.run();
+        if(status != 0){
+            System.exit(status);
+        }
+    }
+
+    private int run() throws IOException, TransformerException, JAXBException {
+        if(format == Format.JSON && styleSheet != null){
+            throw new IllegalArgumentException("A style sheet only applies to XML output");
+        }
+        // compiled once, however many files it's applied to
+        Templates templates = null;
+        if(styleSheet != null){
+            templates = TransformerFactory.newInstance("net.sf.saxon.TransformerFactoryImpl", null).newTemplates(new StreamSource(styleSheet));
+        }
+        if(batch != null){
+            return runBatch(templates);
+        }
+        if(checkpoint != null){
+            if(templates != null){
+                throw new IllegalArgumentException("Output through a style sheet can't be checkpointed");
+            }
+            return runCheckpointed();
+        }
+        OutputStream out = destination == null || destination.getPath().equals("-") ? System.out
+                : new BufferedOutputStream(new FileOutputStream(destination));
+
+        InterchangeHeader header;
+        InputSource ediInput;
+        InputStream ediStream = null;
+        if(inEdi != null && inEdi.isFile()){
+            header = sniff(inEdi.toPath());
+            // a bare system id lets the reader memory map the file
+            ediInput = new InputSource(inEdi.toURI().toString());
+        }else{
+            HeaderSniffer sniffer = new HeaderSniffer(inEdi == null || inEdi.getPath().equals("-") ? System.in : new FileInputStream(inEdi), Charset.defaultCharset());
+            header = sniffer.getHeader();
+            ediStream = sniffer.getInputStream();
+            ediInput = new InputSource(ediStream);
+        }
+        String rootName = rootName(header);
+
+        EdiReader xmlReader = new EdiReader(rootName,StructureRegistry.get(rootName));
+        xmlReader.setProjection(projection());
+        ForkJoinPool pool = null;
+        if(threads > 1){
+            pool = new ForkJoinPool(threads);
+            xmlReader.setPool(pool);
+        }
+        convert(xmlReader, ediInput, out, templates);
+        out.flush();
+        out.close();
+        if(ediStream != null){
+            ediStream.close();
+        }
+        if(pool != null){
+            pool.shutdown();
+        }
+        return 0;
     }
 
-    private void run() throws IOException, TransformerException, JAXBException {
-        if(destination == null){
-            destination = System.out;
+    /**
+     * Converts every file of the batch into the output directory on one pool, sharing readers and the compiled style
+     * sheet between them.
+     *
+     * @return 1 if any file failed, 0 otherwise
+     */
+    private int runBatch(Templates templates) throws IOException {
+        if(inEdi != null || destination != null){
+            throw new IllegalArgumentException("--batch reads and writes files of its own, so it can't be used with --in or --out");
         }
-        if(inEdi == null){
-            inEdi = new BufferedInputStream(System.in);
+        if(outDir == null){
+            throw new IllegalArgumentException("--batch needs an --out-dir to write to");
         }
-        if(styleSheet == null){
-            styleSheet = this.getClass().getResourceAsStream("/identity.xslt");
+        int parallelism = threads > 1 ? threads : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Map<String, EdiReaderPool> readers = new ConcurrentHashMap<>();
+        String extension = format == Format.JSON ? "json" : "xml";
+        Projection projection = projection();
+        try {
+            int failed = EdiBatch.of(batch).run(pool, outDir.toPath(), extension, (in, out, filePool) -> {
+                String rootName = rootName(sniff(in));
+                EdiReaderPool readerPool = readers.computeIfAbsent(rootName,
+                        name -> new EdiReaderPool(new EdiReaderConfig(name, StructureRegistry.get(name)), parallelism));
+                EdiReader reader = readerPool.borrow();
+                try(OutputStream result = new BufferedOutputStream(Files.newOutputStream(out))){
+                    reader.setPool(filePool);
+                    reader.setProjection(projection);
+                    convert(reader, new InputSource(in.toUri().toString()), result, templates);
+                } finally {
+                    readerPool.release(reader);
+                }
+            });
+            return failed == 0 ? 0 : 1;
+        } finally {
+            pool.shutdown();
         }
+    }
 
-        inEdi.mark(128);
-        EDIType type = EDIType.fromStream(inEdi, Charset.defaultCharset());
-        inEdi.reset();
-        InputStream resource;
-        String rootName;
+    /**
+     * Converts a file to XML, checkpointing as it goes, or carries on from the last checkpoint if a conversion was cut
+     * short. The checkpoint is deleted once the output is complete.
+     */
+    private int runCheckpointed() throws IOException {
+        if(inEdi == null || !inEdi.isFile() || destination == null || destination.getPath().equals("-")){
+            throw new IllegalArgumentException("--checkpoint needs an --in file and an --out file");
+        }
+        if(format != Format.XML){
+            throw new IllegalArgumentException("Only XML output can be checkpointed");
+        }
+        Path checkpointFile = checkpoint.toPath();
+        Checkpoint last = Files.exists(checkpointFile) ? Checkpoint.read(checkpointFile) : null;
+        Projection projection = projection();
+        if(last != null){
+            // carrying on from the wrong checkpoint, or onto the wrong output, would append XML that doesn't belong
+            if(!last.isCurrent(inEdi.toPath())){
+                throw new IllegalArgumentException(inEdi + " has changed since " + checkpoint + " was taken; delete the checkpoint to start over");
+            }
+            if(!last.isFor(projection)){
+                throw new IllegalArgumentException(checkpoint + " was taken with another --project; delete it to start over");
+            }
+            if(!destination.isFile() || destination.length() < XmlWriter.outputLength(last.getHandlerState())){
+                throw new IllegalArgumentException(destination + " is missing output from before " + checkpoint + " was taken; delete the checkpoint to start over");
+            }
+        }
+        String rootName = rootName(sniff(inEdi.toPath()));
+        EdiReader xmlReader = new EdiReader(rootName, StructureRegistry.get(rootName));
+        xmlReader.setProjection(projection);
+        try(FileChannel channel = FileChannel.open(destination.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)){
+            // whatever was written after the checkpoint is written again
+            channel.truncate(last == null ? 0 : XmlWriter.outputLength(last.getHandlerState()));
+            channel.position(channel.size());
+            XmlWriter xml = new XmlWriter(Channels.newOutputStream(channel));
+            xml.setIndent(indent);
+            xmlReader.setContentHandler(xml);
+            xmlReader.setCheckpoints(CHECKPOINT_INTERVAL, taken -> {
+                try {
+                    // the output has to be on disk before a checkpoint says it is
+                    channel.force(false);
+                    taken.write(checkpointFile);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            if(last == null){
+                xmlReader.parse(new InputSource(inEdi.toURI().toString()));
+            }else {
+                xmlReader.resume(inEdi.toPath(), last);
+            }
+        } catch (SAXException e) {
+            throw new IOException(e);
+        }
+        Files.deleteIfExists(checkpointFile);
+        return 0;
+    }
+
+    private void convert(EdiReader xmlReader, InputSource ediInput, OutputStream out, Templates templates) throws IOException, TransformerException {
+        if(templates == null){
+            if(format == Format.JSON){
+                // written as it's read, unlike xml-to-json.xslt, which needs the whole tree
+                Writer json = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                xmlReader.setContentHandler(new JsonWriter(json, xmlReader.getConfig().getStructure()));
+            }else {
+                // the same output as identity.xslt, without a Transformer
+                XmlWriter xml = new XmlWriter(out);
+                xml.setIndent(indent);
+                xmlReader.setContentHandler(xml);
+            }
+            try {
+                xmlReader.parse(ediInput);
+            } catch (SAXException e) {
+                throw new IOException(e);
+            }
+        }else {
+            SAXSource ediSource = new SAXSource(xmlReader, ediInput);
+            templates.newTransformer().transform(ediSource, new StreamResult(out));
+        }
+    }
+
+    private Projection projection() {
+        return project == null ? null : Projection.of(project.split(","));
+    }
+
+    private static InterchangeHeader sniff(Path file) throws IOException {
+        try(InputStream in = Files.newInputStream(file)){
+            return new HeaderSniffer(in, Charset.defaultCharset()).getHeader();
+        }
+    }
+
+    private static String rootName(InterchangeHeader header) {
+        EDIType type = header.getType();
+        if(type == null){
+            throw new RuntimeException("Unsupported format: " + header);
+        }
         switch (type){
             case FORMAT_837D:
             case FORMAT_837I:
             case FORMAT_837P:
-                resource = getClass().getResourceAsStream("/META-INF/loops/edi837.xml");
-                rootName = "edi837";
-                break;
+                return "edi837";
             case FORMAT_835:
-                resource = getClass().getResourceAsStream("/META-INF/loops/edi835.xml");
-                rootName = "edi835";
-                break;
+                return "edi835";
             case FORMAT_834:
-                resource = getClass().getResourceAsStream("/META-INF/loops/edi834.xml");
-                rootName = "edi834";
-                break;
+                return "edi834";
             default:
                 throw new RuntimeException("Unsupported format: " + type);
         }
+    }
 
-        EdiStructure structure = EdiStructure.fromStream(resource);
-        XMLReader xmlReader = new EdiReader(rootName,structure);
-
-        SAXSource ediSource = new SAXSource(xmlReader, new InputSource(inEdi));
-        StreamSource xsltSource = new StreamSource(styleSheet);
-
-
-
-        Transformer transformer = TransformerFactory.newInstance("net.sf.saxon.TransformerFactoryImpl", null).newTransformer(xsltSource);
-        transformer.transform(ediSource, new StreamResult(destination));
-        destination.flush();
-        destination.close();
-        inEdi.close();
+    public enum Format {
+        XML, JSON
     }
 
     public boolean isHelp() {
@@ -149,28 +347,6 @@ Help options
         }
     }
 
-    public static class OutputStreamOptionHandler extends OneArgumentOptionHandler<OutputStream> {
-
-        public OutputStreamOptionHandler(CmdLineParser parser, OptionDef option, Setter<? super OutputStream> setter) {
-            super(parser, option, setter);
-        }
-
-        @Override
-        protected OutputStream parse(String argument) throws NumberFormatException, CmdLineException {
-            OutputStream result;
-            try {
-                if(argument.equals("-")) {
-                    result = System.out;
-                }
-                else {
-                    result = new BufferedOutputStream(new FileOutputStream(argument));
-                }
-            } catch (FileNotFoundException e) {
-                throw new CmdLineException(owner,e.getMessage());
-            }
-            return result;
-        }
-    }
 
 
 
@@ -0,0 +1,274 @@
+package org.bongiorno.edi.factory;
+
+import javax.xml.bind.JAXBException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How to build one annotated class: a constructor, and a setter per bound field, looked up once as MethodHandles with
+ * any String conversion folded in, so binding a segment is a few handle invocations and no reflection.
+ */
+final class ClassBinding {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodType CONSTRUCTOR = MethodType.methodType(Object.class);
+
+    private static final MethodType ELEMENT_SETTER = MethodType.methodType(void.class, Object.class, String.class);
+
+    private static final MethodType CHILD_GETTER = MethodType.methodType(Object.class, Object.class);
+
+    private static final MethodType CHILD_SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final Class<?> type;
+
+    private MethodHandle constructor;
+
+    private ElementBinding[] elements;
+
+    /**
+     * keyed by segment id, or by loop element name (Loop2300)
+     */
+    private Map<String, ChildBinding> children;
+
+    private ClassBinding(Class<?> type) {
+        this.type = type;
+    }
+
+    /**
+     * @param known the bindings made so far, which classes that refer to each other share
+     */
+    static ClassBinding of(Class<?> type, Map<Class<?>, ClassBinding> known) throws JAXBException {
+        ClassBinding binding = known.get(type);
+        if (binding != null) {
+            return binding;
+        }
+        binding = new ClassBinding(type);
+        known.put(type, binding);
+
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            binding.constructor = LOOKUP.unreflectConstructor(constructor).asType(CONSTRUCTOR);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new JAXBException(type.getName() + " needs a no argument constructor", e);
+        }
+
+        List<ElementBinding> elements = new ArrayList<>();
+        Map<String, ChildBinding> children = new HashMap<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                    continue;
+                }
+                EdiElement element = field.getAnnotation(EdiElement.class);
+                if (element != null) {
+                    elements.add(new ElementBinding(field, element));
+                    continue;
+                }
+                Class<?> childType = childType(field);
+                String name = childType == null ? null : childName(childType);
+                if (name != null) {
+                    if (children.containsKey(name)) {
+                        throw new JAXBException(type.getName() + " binds " + name + " to more than one field");
+                    }
+                    children.put(name, new ChildBinding(field, of(childType, known)));
+                }
+            }
+        }
+        binding.elements = elements.toArray(new ElementBinding[0]);
+        binding.children = Collections.unmodifiableMap(children);
+        return binding;
+    }
+
+    /**
+     * @return the name of what the class is bound from, as the reader would name its element, or null if it isn't
+     */
+    static String childName(Class<?> type) {
+        EdiSegment segment = type.getAnnotation(EdiSegment.class);
+        if (segment != null) {
+            return segment.value().intern();
+        }
+        EdiLoop loop = type.getAnnotation(EdiLoop.class);
+        return loop == null ? null : ("Loop" + loop.value()).intern();
+    }
+
+    private static Class<?> childType(Field field) {
+        if (!isList(field.getType())) {
+            return field.getType();
+        }
+        Type generic = field.getGenericType();
+        if (generic instanceof ParameterizedType) {
+            Type item = ((ParameterizedType) generic).getActualTypeArguments()[0];
+            if (item instanceof Class) {
+                return (Class<?>) item;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isList(Class<?> type) {
+        return Collection.class.isAssignableFrom(type) && type.isAssignableFrom(ArrayList.class);
+    }
+
+    Class<?> getType() {
+        return type;
+    }
+
+    Object newInstance() {
+        try {
+            return constructor.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    ElementBinding[] getElements() {
+        return elements;
+    }
+
+    /**
+     * @return the field that takes the named segment or loop, or null if there isn't one
+     */
+    ChildBinding getChild(String name) {
+        return children.get(name);
+    }
+
+    /**
+     * One {@link EdiElement} field.
+     */
+    static final class ElementBinding {
+
+        private final int position;
+
+        private final int component;
+
+        private final String field;
+
+        private final MethodHandle setter;
+
+        private ElementBinding(Field field, EdiElement element) throws JAXBException {
+            this.position = element.value();
+            this.component = element.component();
+            this.field = field.getDeclaringClass().getSimpleName() + "." + field.getName();
+            if (position < 1 || component < 0) {
+                throw new JAXBException(this.field + " has no element position " + position + " component " + component);
+            }
+            field.setAccessible(true);
+            try {
+                MethodHandle set = LOOKUP.unreflectSetter(field);
+                if (field.getType() != String.class) {
+                    set = MethodHandles.filterArguments(set, 1, converter(field.getType()));
+                }
+                this.setter = set.asType(ELEMENT_SETTER);
+            } catch (IllegalAccessException e) {
+                throw new JAXBException(e);
+            }
+        }
+
+        /**
+         * @return (String) to the field's type
+         */
+        private MethodHandle converter(Class<?> type) throws JAXBException {
+            Class<?> boxed = MethodType.methodType(type).wrap().returnType();
+            MethodHandle converter;
+            try {
+                converter = LOOKUP.findStatic(boxed, "valueOf", MethodType.methodType(boxed, String.class));
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                try {
+                    converter = LOOKUP.findConstructor(boxed, MethodType.methodType(void.class, String.class));
+                } catch (NoSuchMethodException | IllegalAccessException e1) {
+                    throw new JAXBException(field + " is a " + type.getName() + ", which can't be made from a String");
+                }
+            }
+            return converter.asType(MethodType.methodType(type, String.class));
+        }
+
+        int getPosition() {
+            return position;
+        }
+
+        int getComponent() {
+            return component;
+        }
+
+        void set(Object target, String value) {
+            try {
+                setter.invokeExact(target, value);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Can't set " + field + " to '" + value + "'", e);
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * A field taking an {@link EdiSegment} or {@link EdiLoop} class, or a List of one.
+     */
+    static final class ChildBinding {
+
+        private final ClassBinding binding;
+
+        private final boolean list;
+
+        private final MethodHandle getter;
+
+        private final MethodHandle setter;
+
+        private ChildBinding(Field field, ClassBinding binding) throws JAXBException {
+            this.binding = binding;
+            this.list = isList(field.getType());
+            field.setAccessible(true);
+            try {
+                this.getter = LOOKUP.unreflectGetter(field).asType(CHILD_GETTER);
+                this.setter = LOOKUP.unreflectSetter(field).asType(CHILD_SETTER);
+            } catch (IllegalAccessException e) {
+                throw new JAXBException(e);
+            }
+        }
+
+        ClassBinding getBinding() {
+            return binding;
+        }
+
+        /**
+         * Sets the field to the child, or adds the child to the field's list, creating the list if need be.
+         */
+        @SuppressWarnings("unchecked")
+        void add(Object parent, Object child) {
+            try {
+                if (list) {
+                    Object items = getter.invokeExact(parent);
+                    if (items == null) {
+                        items = new ArrayList<>();
+                        setter.invokeExact(parent, items);
+                    }
+                    ((Collection<Object>) items).add(child);
+                } else {
+                    setter.invokeExact(parent, child);
+                }
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
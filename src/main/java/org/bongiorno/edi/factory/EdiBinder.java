@@ -0,0 +1,185 @@
+package org.bongiorno.edi.factory;
+
+import org.bongiorno.edi.reader.loops.EdiStructure;
+import org.bongiorno.edi.reader.loops.TransitionTable;
+import org.bongiorno.edi.reader.tokenizer.SegmentCursor;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * One document's worth of binding. Follows the same rules as EdiReader for what nests in what (the envelope
+ * segments, the loop transitions, SE and the end of loops segment closing the open loops), but instead of emitting
+ * events it keeps a stack of the objects being filled in.
+ */
+final class EdiBinder {
+
+    private final EdiStructure structure;
+
+    private final ClassBinding rootBinding;
+
+    private final String loopsEnd;
+
+    private final Deque<Frame> frames = new ArrayDeque<>();
+
+    private TransitionTable.State loopState;
+
+    EdiBinder(EdiStructure structure, ClassBinding rootBinding) {
+        this.structure = structure;
+        this.rootBinding = rootBinding;
+        String end = structure.getLoopsEnd();
+        this.loopsEnd = end == null || end.isEmpty() ? null : end.intern();
+    }
+
+    Object bind(SegmentCursor segment) throws IOException {
+        Object root = rootBinding.newInstance();
+        frames.push(new Frame(root, rootBinding));
+        loopState = structure.getTransitionTable().getRoot();
+        while (segment.advance()) {
+            String id = segment.segmentId();
+            switch (id) {
+                case "ISA":
+                case "GS":
+                case "ST":
+                    openEnvelope(segment);
+                    break;
+                case "SE":
+                    popToRootLoop();
+                    frames.pop();
+                    break;
+                case "GE":
+                case "IEA":
+                    frames.pop();
+                    break;
+                default:
+                    if (id == loopsEnd) {
+                        popToRootLoop();
+                    }
+                    transitionLevel(segment);
+                    addSegment(segment);
+            }
+        }
+        return root;
+    }
+
+    private void openEnvelope(SegmentCursor segment) {
+        Frame parent = frames.peek();
+        ClassBinding.ChildBinding child = parent.child(segment.segmentId());
+        if (child == null) {
+            // what the envelope contains goes to the enclosing object
+            frames.push(parent);
+            return;
+        }
+        ClassBinding binding = child.getBinding();
+        Object target = binding.newInstance();
+        setElements(binding, target, segment);
+        child.add(parent.target, target);
+        frames.push(new Frame(target, binding));
+    }
+
+    private void popToRootLoop() {
+        while (loopState.getParent() != null) {
+            frames.pop();
+            loopState = loopState.getParent();
+        }
+    }
+
+    private void transitionLevel(SegmentCursor segment) {
+        TransitionTable.Transition transition = loopState.transition(segment);
+        if (transition != null) {
+            for (int i = 0; i < transition.getPops(); ++i) {
+                frames.pop();
+            }
+            loopState = transition.getTarget();
+            Frame parent = frames.peek();
+            ClassBinding.ChildBinding child = parent.child(loopState.getElementName());
+            if (child == null) {
+                frames.push(Frame.SKIPPED);
+            } else {
+                Object target = child.getBinding().newInstance();
+                child.add(parent.target, target);
+                frames.push(new Frame(target, child.getBinding()));
+            }
+        }
+    }
+
+    private void addSegment(SegmentCursor segment) {
+        Frame parent = frames.peek();
+        ClassBinding.ChildBinding child = parent.child(segment.segmentId());
+        if (child != null) {
+            ClassBinding binding = child.getBinding();
+            Object target = binding.newInstance();
+            setElements(binding, target, segment);
+            child.add(parent.target, target);
+        }
+    }
+
+    private static void setElements(ClassBinding binding, Object target, SegmentCursor segment) {
+        int count = segment.elementCount();
+        for (ClassBinding.ElementBinding element : binding.getElements()) {
+            int position = element.getPosition();
+            if (position >= count) {
+                continue;
+            }
+            String value = value(segment, position, element.getComponent());
+            if (!value.isEmpty()) {
+                try {
+                    element.set(target, value);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(segment.segmentId() + position + ": " + e.getMessage(), e.getCause());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the first repetition of the element, or of one part of it
+     */
+    private static String value(SegmentCursor segment, int position, int component) {
+        CharSequence element = segment.element(position);
+        char repetitionSeparator = segment.getDelimiters().getRepetitionSeparator();
+        char compositeDelimiter = segment.getDelimiters().getCompositeDelimiter();
+        int length = element.length();
+        int start = 0;
+        int part = 1;
+        for (int i = 0; i < length; ++i) {
+            char c = element.charAt(i);
+            if (c == repetitionSeparator) {
+                length = i;
+            } else if (component > 0 && c == compositeDelimiter) {
+                if (part == component) {
+                    length = i;
+                } else {
+                    start = i + 1;
+                    ++part;
+                }
+            }
+        }
+        if (part < component) {
+            return "";
+        }
+        return element.subSequence(start, length).toString();
+    }
+
+    private static final class Frame {
+
+        /**
+         * a segment or loop that isn't bound, and everything in it
+         */
+        static final Frame SKIPPED = new Frame(null, null);
+
+        final Object target;
+
+        final ClassBinding binding;
+
+        Frame(Object target, ClassBinding binding) {
+            this.target = target;
+            this.binding = binding;
+        }
+
+        ClassBinding.ChildBinding child(String name) {
+            return binding == null ? null : binding.getChild(name);
+        }
+    }
+}
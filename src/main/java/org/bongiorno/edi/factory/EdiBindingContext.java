@@ -0,0 +1,119 @@
+package org.bongiorno.edi.factory;
+
+import org.bongiorno.edi.reader.loops.EdiStructure;
+import org.bongiorno.edi.reader.loops.StructureRegistry;
+import org.bongiorno.edi.reader.tokenizer.EDITokenizer;
+
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+/**
+ * Binds EDI straight onto annotated classes, without going through XML the way {@link EdiJaxbContext} does: no SAX
+ * events, no element names and no XML binding layer, just the loop structure picking the object each segment belongs
+ * to and precomputed setters filling it in. For example
+ * <pre>
+ * &#64;EdiLoop("2300") class Claim {
+ *     Clm clm;
+ *     List&lt;Dtp&gt; dates;
+ * }
+ * &#64;EdiSegment("CLM") class Clm {
+ *     &#64;EdiElement(1) String id;
+ *     &#64;EdiElement(2) BigDecimal amount;
+ *     &#64;EdiElement(value = 5, component = 1) String facility;
+ * }
+ * </pre>
+ * A field takes a segment or loop because of its type's annotation. Segments and loops nobody has a field for are
+ * skipped along with everything in them, except the envelope segments ISA, GS and ST: when those aren't bound, what they
+ * contain goes to the object enclosing them, so the root class can take loops directly.
+ * <p>
+ * Thread safe; build one per root class and reuse it.
+ */
+public final class EdiBindingContext<T> {
+
+    private final Class<T> rootClass;
+
+    private final EdiStructure structure;
+
+    private final ClassBinding binding;
+
+    private EdiBindingContext(Class<T> rootClass, EdiStructure structure) throws JAXBException {
+        this.rootClass = rootClass;
+        this.structure = structure;
+        this.binding = ClassBinding.of(rootClass, new HashMap<>());
+    }
+
+    /**
+     * The loop definition is found the same way as for {@link EdiUnmarshaller}, from the root class's XmlRootElement
+     * name or its simple name.
+     */
+    public static <T> EdiBindingContext<T> newInstance(Class<T> rootClass) throws JAXBException {
+        URL loopResource;
+        try {
+            loopResource = EdiUnmarshaller.findLoopResource(rootClass);
+        } catch (IllegalArgumentException e) {
+            throw new JAXBException(e);
+        }
+        return newInstance(rootClass, loopResource);
+    }
+
+    /**
+     * @param structureName a loop definition in /META-INF/loops, e.g. edi837
+     */
+    public static <T> EdiBindingContext<T> newInstance(Class<T> rootClass, String structureName) throws JAXBException {
+        try {
+            return new EdiBindingContext<>(rootClass, StructureRegistry.get(structureName));
+        } catch (IllegalArgumentException e) {
+            throw new JAXBException(e);
+        }
+    }
+
+    public static <T> EdiBindingContext<T> newInstance(Class<T> rootClass, URL loopResource) throws JAXBException {
+        try {
+            return new EdiBindingContext<>(rootClass, StructureRegistry.get(loopResource));
+        } catch (RuntimeException e) {
+            throw new JAXBException(e.getCause() == null ? e : e.getCause());
+        }
+    }
+
+    public Class<T> getRootClass() {
+        return rootClass;
+    }
+
+    public EdiStructure getStructure() {
+        return structure;
+    }
+
+    /**
+     * Binds a whole document and closes the tokenizer.
+     */
+    public T unmarshal(EDITokenizer tokenizer) throws JAXBException {
+        try (EDITokenizer in = tokenizer) {
+            return rootClass.cast(new EdiBinder(structure, binding).bind(in.cursor()));
+        } catch (IOException e) {
+            throw new JAXBException(e);
+        } catch (RuntimeException e) {
+            throw new JAXBException(e.getMessage(), e.getCause() == null ? e : e.getCause());
+        }
+    }
+
+    public T unmarshal(Path file) throws JAXBException {
+        try {
+            return unmarshal(EDITokenizer.open(file));
+        } catch (IOException e) {
+            throw new JAXBException(e);
+        }
+    }
+
+    public T unmarshal(InputStream in, Charset charset) throws JAXBException {
+        try {
+            return unmarshal(new EDITokenizer(in, charset));
+        } catch (IOException e) {
+            throw new JAXBException(e);
+        }
+    }
+}
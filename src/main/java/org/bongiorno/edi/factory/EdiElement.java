@@ -0,0 +1,27 @@
+package org.bongiorno.edi.factory;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds a field of an {@link EdiSegment} class to one of the segment's elements, e.g. {@code @EdiElement(1)} for CLM01.
+ * Fields may be Strings, or of any type with a static valueOf(String) or a String constructor: primitives and their
+ * wrappers, BigDecimal, enums and so on. Empty and missing elements leave the field alone. Of a repeating element only
+ * the first repetition is bound.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface EdiElement {
+
+    /**
+     * @return the element's position, 1 based
+     */
+    int value();
+
+    /**
+     * @return for a composite element, the part to bind, 1 based; 0 binds the whole element
+     */
+    int component() default 0;
+}
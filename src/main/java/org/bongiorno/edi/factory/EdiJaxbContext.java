@@ -1,10 +1,12 @@
 package org.bongiorno.edi.factory;
 
 
+import org.bongiorno.edi.reader.EdiReaderConfig;
 import org.w3c.dom.Node;
 
 import javax.xml.bind.*;
 import java.io.IOException;
+import java.net.URL;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Properties;
@@ -23,6 +25,13 @@ public class EdiJaxbContext extends JAXBContext {
      */
     private JAXBContext delegate;
 
+    private URL loopResource;
+
+    /**
+     * built by the first unmarshaller and shared by every one after it, so reader setup happens once per context
+     */
+    private volatile EdiReaderConfig readerConfig;
+
     /**
      * Only binds to one class at the moment.
      * @param bindClass
@@ -62,7 +71,14 @@ public class EdiJaxbContext extends JAXBContext {
 
     @Override
     public Unmarshaller createUnmarshaller() throws JAXBException {
-        return new EdiUnmarshaller(this.bindClass, delegate.createUnmarshaller());
+        EdiReaderConfig config = readerConfig;
+        if (config == null) {
+            // two threads may both build it; either copy will do
+            loopResource = EdiUnmarshaller.findLoopResource(bindClass);
+            config = EdiUnmarshaller.readerConfig(loopResource);
+            readerConfig = config;
+        }
+        return new EdiUnmarshaller(this.bindClass, loopResource, config, delegate.createUnmarshaller());
     }
 
     @Override
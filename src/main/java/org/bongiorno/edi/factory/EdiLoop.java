@@ -0,0 +1,22 @@
+package org.bongiorno.edi.factory;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class as bound from one loop, named as in the loop definition, e.g. {@code @EdiLoop("2300")}. Its fields take
+ * the loop's segments and nested loops.
+ *
+ * @see EdiBindingContext
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface EdiLoop {
+
+    /**
+     * @return the loop's name
+     */
+    String value();
+}
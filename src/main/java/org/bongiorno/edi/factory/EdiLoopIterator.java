@@ -0,0 +1,163 @@
+package org.bongiorno.edi.factory;
+
+import org.bongiorno.edi.reader.loops.EdiStructure;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Unmarshals every instance of one element of a document, a loop like Loop2300 usually, one at a time, as they're
+ * asked for. Nothing is held on to once it's been returned, so memory stays flat however big the document is.
+ * <p>
+ * Everything outside those elements, the envelope and header segments and the loops enclosing the current one, is
+ * kept as the {@link #getContext() context}. Only the latest ISA, GS, ST and the latest instance of each loop are
+ * kept in it, which keeps it small too.
+ *
+ * @see EdiUnmarshaller#unmarshalLoops(org.xml.sax.InputSource, String, Class)
+ */
+public final class EdiLoopIterator<T> implements Iterator<T>, Closeable {
+
+    private final XMLStreamReader xml;
+
+    private final Unmarshaller unmarshaller;
+
+    private final String elementName;
+
+    private final Class<T> type;
+
+    private final Document context;
+
+    /**
+     * the elements that hold segments: the envelope and every loop of the structure
+     */
+    private final Set<String> containers;
+
+    private Node current;
+
+    private T next;
+
+    /**
+     * the reader is on an event that hasn't been looked at yet, having been left there by the unmarshaller
+     */
+    private boolean pending;
+
+    EdiLoopIterator(XMLStreamReader xml, Unmarshaller unmarshaller, String elementName, Class<T> type,
+                    EdiStructure structure) throws JAXBException {
+        this.xml = xml;
+        this.unmarshaller = unmarshaller;
+        this.elementName = elementName;
+        this.type = type;
+        this.containers = new HashSet<>(structure.getTransitionTable().getLoopElementNames());
+        containers.add("ISA");
+        containers.add("GS");
+        containers.add("ST");
+        try {
+            this.context = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        } catch (ParserConfigurationException e) {
+            throw new JAXBException(e);
+        }
+        this.current = context;
+    }
+
+    /**
+     * @return the document's root element, holding what's been read outside the unmarshalled elements. It changes as
+     * the iteration goes on, so read it before moving on to the next element.
+     */
+    public Element getContext() {
+        return context.getDocumentElement();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = advance();
+            } catch (XMLStreamException | JAXBException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T result = next;
+        next = null;
+        return result;
+    }
+
+    private T advance() throws XMLStreamException, JAXBException {
+        while (pending || xml.hasNext()) {
+            int type = pending ? xml.getEventType() : xml.next();
+            pending = false;
+            switch (type) {
+                case XMLStreamReader.START_ELEMENT:
+                    String name = xml.getLocalName();
+                    if (name.equals(elementName)) {
+                        T result = unmarshaller.unmarshal(xml, this.type).getValue();
+                        afterElement();
+                        return result;
+                    }
+                    startElement(name);
+                    break;
+                case XMLStreamReader.END_ELEMENT:
+                    current = current.getParentNode();
+                    break;
+                case XMLStreamReader.CHARACTERS:
+                    current.appendChild(context.createTextNode(xml.getText()));
+                    break;
+                default:
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Unmarshallers either leave the reader on the element's end tag or move on past it.
+     */
+    private void afterElement() {
+        pending = !(xml.getEventType() == XMLStreamReader.END_ELEMENT && xml.getLocalName().equals(elementName));
+    }
+
+    private void startElement(String name) {
+        if (containers.contains(name)) {
+            // only the latest of each is kept
+            for (Node sibling = current.getFirstChild(); sibling != null; sibling = sibling.getNextSibling()) {
+                if (name.equals(sibling.getNodeName())) {
+                    current.removeChild(sibling);
+                    break;
+                }
+            }
+        }
+        Element element = context.createElement(name);
+        for (int i = 0; i < xml.getAttributeCount(); ++i) {
+            element.setAttribute(xml.getAttributeLocalName(i), xml.getAttributeValue(i));
+        }
+        current = current.appendChild(element);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.bongiorno.edi.factory;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class as bound from one segment, e.g. {@code @EdiSegment("CLM")}. Its {@link EdiElement} fields take the
+ * segment's elements. The envelope segments ISA, GS and ST also contain what follows them, so their classes can have
+ * segment and loop fields too.
+ *
+ * @see EdiBindingContext
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface EdiSegment {
+
+    /**
+     * @return the segment id
+     */
+    String value();
+}
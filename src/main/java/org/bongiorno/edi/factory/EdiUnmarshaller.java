@@ -1,10 +1,13 @@
 package org.bongiorno.edi.factory;
 
 import org.bongiorno.edi.reader.EdiReader;
+import org.bongiorno.edi.reader.EdiReaderConfig;
 import org.bongiorno.edi.reader.loops.EdiStructure;
+import org.bongiorno.edi.reader.loops.StructureRegistry;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
-import org.xml.sax.XMLReader;
+import org.xml.sax.SAXException;
 
 import javax.xml.bind.*;
 import javax.xml.bind.annotation.XmlRootElement;
@@ -19,6 +22,7 @@ import javax.xml.validation.Schema;
 import java.io.*;
 import java.lang.annotation.Annotation;
 import java.net.URL;
+import java.util.function.BiConsumer;
 
 /**
  * @author chribong
@@ -28,8 +32,12 @@ public class EdiUnmarshaller implements Unmarshaller {
     private final Class bindClass;
     private final String rootElementName;
     private Unmarshaller delegate;
-    private final EdiStructure structure;
+    private final EdiReaderConfig readerConfig;
     private final URL loopResource;
+    /**
+     * reused for every document, which is safe because an unmarshaller is only used by one thread at a time anyway
+     */
+    private EdiReader reader;
 
     public EdiUnmarshaller(Class bindClass, Unmarshaller delegate) throws JAXBException {
         this(bindClass,findLoopResource(bindClass),delegate);
@@ -37,22 +45,36 @@ public class EdiUnmarshaller implements Unmarshaller {
 
     }
     public EdiUnmarshaller(Class bindClass, URL loopResource, Unmarshaller delegate) throws JAXBException {
+        this(bindClass, loopResource, readerConfig(loopResource), delegate);
+    }
 
-
+    /**
+     * @param readerConfig built by {@link #readerConfig(URL)} from the same loop resource, and shared
+     */
+    EdiUnmarshaller(Class bindClass, URL loopResource, EdiReaderConfig readerConfig, Unmarshaller delegate) {
         this.bindClass = bindClass;
         this.delegate = delegate;
+        this.rootElementName = readerConfig.getRootElement();
+        this.readerConfig = readerConfig;
+        this.loopResource = loopResource;
+    }
+
+    /**
+     * @return the reader setup for a loop resource, which every unmarshaller of it can share
+     */
+    static EdiReaderConfig readerConfig(URL loopResource) throws JAXBException {
+        EdiStructure structure;
         try {
-            this.structure = EdiStructure.fromStream(loopResource.openStream());
-        } catch (IOException e) {
-            throw new JAXBException(e);
+            structure = StructureRegistry.get(loopResource);
+        } catch (RuntimeException e) {
+            throw new JAXBException(e.getCause() == null ? e : e.getCause());
         }
         // instead of creating a 'File' that we should need to split the .xml off of anyways, we can just parse it ourselves.
         String[] split = loopResource.getFile().split("/");
-        this.rootElementName = split[split.length -1].split("\\.")[0];
-        this.loopResource = loopResource;
+        return new EdiReaderConfig(split[split.length -1].split("\\.")[0], structure);
     }
 
-    private static URL findLoopResource(Class bindClass) {
+    static URL findLoopResource(Class bindClass) {
         String loopFileName = getRootElementName(bindClass);
         String name = String.format("/META-INF/loops/%s.xml", loopFileName);
         URL resource = EdiUnmarshaller.class.getResource(name);
@@ -87,6 +109,10 @@ public class EdiUnmarshaller implements Unmarshaller {
         return rootElementName;
     }
 
+    public EdiReaderConfig getReaderConfig() {
+        return readerConfig;
+    }
+
     @Override
     public <A extends XmlAdapter> A getAdapter(Class<A> type) {
         return delegate.getAdapter(type);
@@ -190,13 +216,11 @@ public class EdiUnmarshaller implements Unmarshaller {
 
     @Override
     public Object unmarshal(File f) throws JAXBException {
-        FileInputStream in = null;
-        try {
-            in = new FileInputStream(f);
-        } catch (FileNotFoundException e) {
-            throw new JAXBException(e);
+        if (!f.isFile()) {
+            throw new JAXBException(new FileNotFoundException(f.getPath()));
         }
-        return unmarshal(new InputSource(new BufferedInputStream(in)));
+        // a bare system id lets the reader memory map the file
+        return unmarshal(new InputSource(f.toURI().toString()));
     }
 
     @Override
@@ -214,9 +238,51 @@ public class EdiUnmarshaller implements Unmarshaller {
     public Object unmarshal(InputSource source) throws JAXBException {
 
 
-        XMLReader xmlReader = new EdiReader(rootElementName, structure);
+        if (reader == null) {
+            reader = new EdiReader(readerConfig);
+        }
+        return delegate.unmarshal(new SAXSource(reader, source));
+    }
+
+    /**
+     * Unmarshals the document one element at a time instead of all at once; see {@link EdiLoopIterator}. Close the
+     * iterator when done with it. This unmarshaller is in use until then.
+     *
+     * @param elementName what to unmarshal, as the reader names it, e.g. Loop2300
+     * @param type the class each is bound to
+     */
+    public <T> EdiLoopIterator<T> unmarshalLoops(InputSource source, String elementName, Class<T> type) throws JAXBException {
+        if (reader == null) {
+            reader = new EdiReader(readerConfig);
+        }
+        try {
+            return new EdiLoopIterator<>(reader.xmlStreamReader(EdiReader.open(source)), delegate, elementName, type,
+                    readerConfig.getStructure());
+        } catch (IOException | SAXException e) {
+            throw new JAXBException(e);
+        }
+    }
 
-        return delegate.unmarshal(new SAXSource(xmlReader, source));
+    /**
+     * Hands each element to the consumer along with the {@link EdiLoopIterator#getContext() context} it was found in.
+     *
+     * @see #unmarshalLoops(InputSource, String, Class)
+     */
+    public <T> void unmarshalLoops(InputSource source, String elementName, Class<T> type,
+                                   BiConsumer<? super T, ? super Element> consumer) throws JAXBException {
+        try (EdiLoopIterator<T> loops = unmarshalLoops(source, elementName, type)) {
+            while (loops.hasNext()) {
+                T loop = loops.next();
+                consumer.accept(loop, loops.getContext());
+            }
+        } catch (IOException e) {
+            throw new JAXBException(e);
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof JAXBException) {
+                throw (JAXBException) e.getCause();
+            }
+            throw e;
+        }
     }
 
     @Override
@@ -0,0 +1,52 @@
+package org.bongiorno.edi.factory;
+
+import org.xml.sax.InputSource;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Keeps up to maxIdle unmarshallers of one context for reuse. Unmarshallers aren't thread safe, but each
+ * {@link EdiUnmarshaller} holds on to its reader between documents, so reusing them saves building both. Borrowing
+ * never blocks: when every unmarshaller is out a new one is made, and ones released to a full pool are dropped.
+ * Thread safe.
+ */
+public class EdiUnmarshallerPool {
+
+    private final JAXBContext context;
+
+    private final BlockingQueue<Unmarshaller> idle;
+
+    public EdiUnmarshallerPool(JAXBContext context, int maxIdle) {
+        this.context = context;
+        this.idle = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    /**
+     * @return an unmarshaller that belongs to the caller until it's {@link #release(Unmarshaller) released}. Settings
+     * changed on it stay changed for the next borrower.
+     */
+    public Unmarshaller borrow() throws JAXBException {
+        Unmarshaller unmarshaller = idle.poll();
+        return unmarshaller == null ? context.createUnmarshaller() : unmarshaller;
+    }
+
+    public void release(Unmarshaller unmarshaller) {
+        idle.offer(unmarshaller);
+    }
+
+    /**
+     * Unmarshals the input with a pooled unmarshaller.
+     */
+    public Object unmarshal(InputSource input) throws JAXBException {
+        Unmarshaller unmarshaller = borrow();
+        try {
+            return unmarshaller.unmarshal(input);
+        } finally {
+            release(unmarshaller);
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.net.URL;
 import java.nio.charset.Charset;
 
 /**
@@ -146,6 +147,9 @@ public abstract class AbstractXMLReader implements XMLReader {
         Reader result = input.getCharacterStream();
         if(result == null){
             InputStream byteStream = input.getByteStream();
+            if (byteStream == null) {
+                byteStream = new URL(input.getSystemId()).openStream();
+            }
             String encoding = input.getEncoding();
             return new InputStreamReader(byteStream, encoding == null ? Charset.defaultCharset() : Charset.forName(encoding));
         }
@@ -0,0 +1,228 @@
+package org.bongiorno.edi.reader;
+
+import org.bongiorno.edi.reader.loops.TransitionTable;
+import org.bongiorno.edi.reader.tokenizer.Delimiters;
+import org.xml.sax.Attributes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Everything needed to carry on parsing a file from a segment boundary: where the next segment starts, the loop state
+ * and the open elements (the envelope and the loops, with their attributes), the delimiters and charset of the
+ * interchange, and the content handler's own state. It also records the size and modification time of the file and the
+ * projection, so it isn't applied to anything else. See {@link EdiReader#setCheckpoints(long, java.util.function.Consumer)}
+ * and {@link EdiReader#resume(Path, Checkpoint)}. Immutable.
+ */
+public final class Checkpoint {
+
+    private static final int MAGIC = 0x45444943;
+
+    private static final int VERSION = 2;
+
+    private final long offset;
+
+    private final int loopState;
+
+    private final String signature;
+
+    private final String[] elements;
+
+    private final Attributes[] attributes;
+
+    private final Delimiters delimiters;
+
+    private final Charset charset;
+
+    private final byte[] handlerState;
+
+    /**
+     * -1 if the input wasn't a file
+     */
+    private final long fileSize;
+
+    private final long lastModified;
+
+    /**
+     * the projection's paths, null if there was none
+     */
+    private final Set<String> projection;
+
+    Checkpoint(long offset, int loopState, String signature, String[] elements, Attributes[] attributes,
+               Delimiters delimiters, Charset charset, byte[] handlerState, long fileSize, long lastModified,
+               Set<String> projection) {
+        this.offset = offset;
+        this.loopState = loopState;
+        this.signature = signature;
+        this.elements = elements;
+        this.attributes = attributes;
+        this.delimiters = delimiters;
+        this.charset = charset;
+        this.handlerState = handlerState;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.projection = projection;
+    }
+
+    /**
+     * @return the byte offset of the segment to carry on from
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    public Delimiters getDelimiters() {
+        return delimiters;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return what the content handler returned from {@link ResumableHandler#checkpoint()}, or null
+     */
+    public byte[] getHandlerState() {
+        return handlerState == null ? null : handlerState.clone();
+    }
+
+    /**
+     * @return false if the file has changed since the checkpoint was taken, going by its size and modification time, or
+     * if the checkpoint wasn't taken of a file
+     */
+    public boolean isCurrent(Path file) throws IOException {
+        return Files.size(file) == fileSize && Files.getLastModifiedTime(file).toMillis() == lastModified;
+    }
+
+    /**
+     * @param projection null for none
+     * @return true if the checkpoint was taken by a reader with the same projection
+     */
+    public boolean isFor(Projection projection) {
+        return Objects.equals(projection == null ? null : projection.getPaths(), this.projection);
+    }
+
+    /**
+     * @return the number of elements open at the checkpoint, the root element included
+     */
+    int getDepth() {
+        return elements.length;
+    }
+
+    /**
+     * @param depth 0 for the root element
+     */
+    String getElement(int depth) {
+        return elements[depth];
+    }
+
+    Attributes getAttributes(int depth) {
+        return attributes[depth];
+    }
+
+    TransitionTable.State getLoopState(TransitionTable table) {
+        if (!table.getSignature().equals(signature)) {
+            throw new IllegalArgumentException("The checkpoint was taken with a different version of the loop structure");
+        }
+        return table.getState(loopState);
+    }
+
+    /**
+     * Replaces the file in one step, so a failure part way through writing leaves the last checkpoint as it was.
+     */
+    public void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(offset);
+            out.writeInt(loopState);
+            out.writeUTF(signature);
+            out.writeUTF(charset.name());
+            out.writeChar(delimiters.getElementDelimiter());
+            out.writeChar(delimiters.getCompositeDelimiter());
+            out.writeChar(delimiters.getRepetitionSeparator());
+            out.writeUTF(delimiters.getSegmentDelimiter());
+            out.writeInt(elements.length);
+            for (int i = 0; i < elements.length; ++i) {
+                out.writeUTF(elements[i]);
+                out.writeInt(attributes[i].getLength());
+                for (int j = 0; j < attributes[i].getLength(); ++j) {
+                    out.writeUTF(attributes[i].getQName(j));
+                    out.writeUTF(attributes[i].getValue(j));
+                }
+            }
+            out.writeInt(handlerState == null ? -1 : handlerState.length);
+            if (handlerState != null) {
+                out.write(handlerState);
+            }
+            out.writeLong(fileSize);
+            out.writeLong(lastModified);
+            out.writeInt(projection == null ? -1 : projection.size());
+            if (projection != null) {
+                for (String path : projection) {
+                    out.writeUTF(path);
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static Checkpoint read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException(file + " isn't a checkpoint this version can read");
+            }
+            long offset = in.readLong();
+            int loopState = in.readInt();
+            String signature = in.readUTF();
+            Charset charset = Charset.forName(in.readUTF());
+            Delimiters delimiters = new Delimiters(in.readChar(), in.readChar(), in.readChar(), in.readUTF());
+            String[] elements = new String[in.readInt()];
+            Attributes[] attributes = new Attributes[elements.length];
+            for (int i = 0; i < elements.length; ++i) {
+                elements[i] = in.readUTF().intern();
+                EdiAttributes element = new EdiAttributes();
+                for (int j = in.readInt(); j > 0; --j) {
+                    element.add(in.readUTF(), in.readUTF());
+                }
+                attributes[i] = element;
+            }
+            int length = in.readInt();
+            byte[] handlerState = null;
+            if (length >= 0) {
+                handlerState = new byte[length];
+                in.readFully(handlerState);
+            }
+            long fileSize = in.readLong();
+            long lastModified = in.readLong();
+            Set<String> projection = null;
+            int paths = in.readInt();
+            if (paths >= 0) {
+                projection = new HashSet<>();
+                for (int i = 0; i < paths; ++i) {
+                    projection.add(in.readUTF());
+                }
+                projection = Collections.unmodifiableSet(projection);
+            }
+            return new Checkpoint(offset, loopState, signature, elements, attributes, delimiters, charset, handlerState,
+                    fileSize, lastModified, projection);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Checkpoint{offset=" + offset + ", elements=" + String.join("/", elements) + "}";
+    }
+}
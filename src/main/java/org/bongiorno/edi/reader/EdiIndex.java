@@ -0,0 +1,444 @@
+package org.bongiorno.edi.reader;
+
+import org.bongiorno.edi.reader.loops.EdiStructure;
+import org.bongiorno.edi.reader.loops.TransitionTable;
+import org.bongiorno.edi.reader.tokenizer.Delimiters;
+import org.bongiorno.edi.reader.tokenizer.EDITokenizer;
+import org.bongiorno.edi.reader.tokenizer.MappedFileScanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where things are in a big file: the byte range of every ISA, GS and ST, and of every instance of the loops asked
+ * for, each with a key to look it up by (the control number of an envelope segment, an element of a loop's start
+ * segment such as CLM01). Built in one pass that follows the loop structure but doesn't split segments that can't
+ * start a loop, written to a small sidecar file, and read back by services that then parse single transaction sets or
+ * claims straight from their offsets; see {@link EdiReader#parse(Path, EdiIndex, Entry)}. Immutable.
+ */
+public final class EdiIndex {
+
+    /**
+     * added to the name of the indexed file to name its index
+     */
+    public static final String SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x45444958;
+
+    private static final int VERSION = 1;
+
+    private final Charset charset;
+
+    private final Delimiters delimiters;
+
+    private final String signature;
+
+    private final long fileSize;
+
+    private final long lastModified;
+
+    private final List<Entry> entries;
+
+    private final Map<String, Map<String, List<Entry>>> byKey = new HashMap<>();
+
+    private EdiIndex(Charset charset, Delimiters delimiters, String signature, long fileSize, long lastModified, List<Entry> entries) {
+        this.charset = charset;
+        this.delimiters = delimiters;
+        this.signature = signature;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.entries = Collections.unmodifiableList(entries);
+        for (Entry entry : entries) {
+            byKey.computeIfAbsent(entry.name, name -> new HashMap<>())
+                    .computeIfAbsent(entry.key, key -> new ArrayList<>(1)).add(entry);
+        }
+    }
+
+    /**
+     * Indexes a file in one pass.
+     *
+     * @param loops the element names of the loops to index, e.g. Loop2300, each with the position in its start segment
+     *              of the element to key it by, e.g. 1 for CLM01
+     */
+    public static EdiIndex build(Path file, Charset charset, EdiStructure structure, Map<String, Integer> loops) throws IOException {
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        try (MappedFileScanner scanner = new MappedFileScanner(file, charset)) {
+            Builder builder = new Builder(structure, loops);
+            scanner.setSkip(builder::skips);
+            while (scanner.advance()) {
+                builder.segment(scanner);
+            }
+            builder.finish();
+            return new EdiIndex(charset, scanner.getDelimiters(), structure.getTransitionTable().getSignature(),
+                    scanner.size(), lastModified, builder.entries);
+        }
+    }
+
+    /**
+     * @return where the index of a file goes: next to it, with {@link #SUFFIX} added to its name
+     */
+    public static Path sidecar(Path file) {
+        return file.resolveSibling(file.getFileName() + SUFFIX);
+    }
+
+    public void write(Path indexFile) throws IOException {
+        Map<String, Integer> names = new HashMap<>();
+        List<String> nameList = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (names.putIfAbsent(entry.name, names.size()) == null) {
+                nameList.add(entry.name);
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeUTF(charset.name());
+            out.writeChar(delimiters.getElementDelimiter());
+            out.writeChar(delimiters.getCompositeDelimiter());
+            out.writeChar(delimiters.getRepetitionSeparator());
+            out.writeUTF(delimiters.getSegmentDelimiter());
+            out.writeUTF(signature);
+            out.writeLong(fileSize);
+            out.writeLong(lastModified);
+            writeNumber(out, nameList.size());
+            for (String name : nameList) {
+                out.writeUTF(name);
+            }
+            // entries are in the order they start, so starts are written as the distance from the one before
+            writeNumber(out, entries.size());
+            long previousStart = 0;
+            for (Entry entry : entries) {
+                writeNumber(out, names.get(entry.name));
+                writeNumber(out, entry.state);
+                writeNumber(out, entry.parent + 1);
+                writeNumber(out, entry.start - previousStart);
+                writeNumber(out, entry.end - entry.start);
+                byte[] key = entry.key.getBytes(StandardCharsets.UTF_8);
+                writeNumber(out, key.length);
+                out.write(key);
+                previousStart = entry.start;
+            }
+        }
+    }
+
+    public static EdiIndex read(Path indexFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException(indexFile + " isn't an index this version can read");
+            }
+            Charset charset = Charset.forName(in.readUTF());
+            Delimiters delimiters = new Delimiters(in.readChar(), in.readChar(), in.readChar(), in.readUTF());
+            String signature = in.readUTF();
+            long fileSize = in.readLong();
+            long lastModified = in.readLong();
+            String[] names = new String[(int) readNumber(in)];
+            for (int i = 0; i < names.length; ++i) {
+                names[i] = in.readUTF().intern();
+            }
+            int count = (int) readNumber(in);
+            List<Entry> entries = new ArrayList<>(count);
+            long start = 0;
+            for (int i = 0; i < count; ++i) {
+                String name = names[(int) readNumber(in)];
+                int state = (int) readNumber(in);
+                int parent = (int) readNumber(in) - 1;
+                start += readNumber(in);
+                long end = start + readNumber(in);
+                byte[] key = new byte[(int) readNumber(in)];
+                in.readFully(key);
+                entries.add(new Entry(i, name, new String(key, StandardCharsets.UTF_8), state, parent, start, end));
+            }
+            return new EdiIndex(charset, delimiters, signature, fileSize, lastModified, entries);
+        }
+    }
+
+    /**
+     * @return false if the file has changed since it was indexed, going by its size and modification time
+     */
+    public boolean isCurrent(Path file) throws IOException {
+        return Files.size(file) == fileSize && Files.getLastModifiedTime(file).toMillis() == lastModified;
+    }
+
+    /**
+     * @return every entry, in the order they start in the file
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @param name ISA, GS, ST or the element name of an indexed loop
+     * @return the entries with that name and key, in file order
+     */
+    public List<Entry> find(String name, String key) {
+        return byKey.getOrDefault(name, Collections.emptyMap()).getOrDefault(key, Collections.emptyList());
+    }
+
+    /**
+     * @return the entry that encloses this one, e.g. the ST of a claim, or null for an ISA
+     */
+    public Entry getParent(Entry entry) {
+        return entry.parent < 0 ? null : entries.get(entry.parent);
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public Delimiters getDelimiters() {
+        return delimiters;
+    }
+
+    /**
+     * Tokenizes just the entry's segments.
+     *
+     * @throws IOException if the file has changed since it was indexed
+     */
+    public EDITokenizer open(Path file, Entry entry) throws IOException {
+        if (!isCurrent(file)) {
+            throw new IOException(file + " has changed since it was indexed");
+        }
+        return EDITokenizer.open(file, charset, delimiters, entry.start, entry.end);
+    }
+
+    /**
+     * @return the loop state a reader has to be in for the entry's first segment to open it
+     */
+    TransitionTable.State startState(EdiStructure structure, Entry entry) {
+        TransitionTable table = structure.getTransitionTable();
+        if (!table.getSignature().equals(signature)) {
+            throw new IllegalArgumentException("The index was built for a different version of the loop structure");
+        }
+        return table.getState(entry.state);
+    }
+
+    /**
+     * Variable length, 7 bits a byte, so small numbers and the distances between entries take a byte or two.
+     */
+    private static void writeNumber(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readNumber(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+        throw new EOFException("Malformed number");
+    }
+
+    /**
+     * One indexed ISA, GS, ST or loop: the byte range [start, end) of the file from its first segment to its last.
+     */
+    public static final class Entry {
+
+        private final int index;
+
+        private final String name;
+
+        private final String key;
+
+        /**
+         * the loop state the first segment is read in
+         */
+        private final int state;
+
+        private final int parent;
+
+        private final long start;
+
+        private long end;
+
+        private Entry(int index, String name, String key, int state, int parent, long start, long end) {
+            this.index = index;
+            this.name = name;
+            this.key = key;
+            this.state = state;
+            this.parent = parent;
+            this.start = start;
+            this.end = end;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the control number for ISA (ISA13), GS (GS06) and ST (ST02), the configured element for a loop
+         */
+        public String getKey() {
+            return key;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + key + " [" + start + ", " + end + ")";
+        }
+    }
+
+    /**
+     * Follows the same rules as EdiReader for what nests in what, recording where each indexed element starts and ends.
+     */
+    private static final class Builder {
+
+        private static final Entry NOT_INDEXED = new Entry(-1, null, null, 0, -1, 0, 0);
+
+        private final TransitionTable.State root;
+
+        private final String loopsEnd;
+
+        private final Map<String, Integer> loops;
+
+        private final List<Entry> entries = new ArrayList<>();
+
+        /**
+         * mirrors the reader's element stack, below its root element
+         */
+        private final Deque<Entry> open = new ArrayDeque<>();
+
+        private TransitionTable.State loopState;
+
+        /**
+         * where the last segment handled ended
+         */
+        private long end;
+
+        private Builder(EdiStructure structure, Map<String, Integer> loops) {
+            this.root = structure.getTransitionTable().getRoot();
+            String loopsEnd = structure.getLoopsEnd();
+            this.loopsEnd = loopsEnd == null || loopsEnd.isEmpty() ? null : loopsEnd.intern();
+            this.loops = loops;
+            this.loopState = root;
+        }
+
+        /**
+         * Segments that can't start a loop are only needed for where they end.
+         */
+        boolean skips(String segmentId) {
+            switch (segmentId) {
+                case "ISA":
+                case "GS":
+                case "ST":
+                    return false;
+                default:
+                    return segmentId != loopsEnd && !loopState.opensLoop(segmentId);
+            }
+        }
+
+        void segment(MappedFileScanner segment) {
+            long start = segment.segmentOffset();
+            long segmentEnd = start + segment.segmentEnd() - segment.segmentStart();
+            String id = segment.segmentId();
+            switch (id) {
+                case "ISA":
+                    open(id, element(segment, 13), root, start);
+                    break;
+                case "GS":
+                    open(id, element(segment, 6), root, start);
+                    break;
+                case "ST":
+                    open(id, element(segment, 2), root, start);
+                    break;
+                case "SE":
+                    popToRootLoop();
+                    close(segmentEnd);
+                    break;
+                case "GE":
+                case "IEA":
+                    close(segmentEnd);
+                    break;
+                default:
+                    if (id == loopsEnd) {
+                        popToRootLoop();
+                    }
+                    TransitionTable.Transition transition = loopState.transition(segment);
+                    if (transition != null) {
+                        for (int i = 0; i < transition.getPops(); ++i) {
+                            close(end);
+                        }
+                        TransitionTable.State target = transition.getTarget();
+                        Integer key = loops.get(target.getElementName());
+                        if (key == null) {
+                            open.push(NOT_INDEXED);
+                        } else {
+                            // read from the enclosing loop, the segment opens this loop and nothing else
+                            open(target.getElementName(), element(segment, key), target.getParent(), start);
+                        }
+                        loopState = target;
+                    }
+            }
+            end = segmentEnd;
+        }
+
+        private void popToRootLoop() {
+            while (loopState.getParent() != null) {
+                close(end);
+                loopState = loopState.getParent();
+            }
+        }
+
+        private void open(String name, String key, TransitionTable.State state, long start) {
+            int parent = -1;
+            for (Entry entry : open) {
+                if (entry != NOT_INDEXED) {
+                    parent = entry.index;
+                    break;
+                }
+            }
+            Entry entry = new Entry(entries.size(), name, key, state.getIndex(), parent, start, -1);
+            entries.add(entry);
+            open.push(entry);
+        }
+
+        private void close(long end) {
+            Entry entry = open.poll();
+            if (entry != null && entry != NOT_INDEXED) {
+                entry.end = end;
+            }
+        }
+
+        /**
+         * Closes whatever the file left open.
+         */
+        void finish() {
+            while (!open.isEmpty()) {
+                close(end);
+            }
+        }
+
+        private static String element(MappedFileScanner segment, int position) {
+            return position < segment.elementCount() ? segment.elementString(position) : "";
+        }
+    }
+}
@@ -1,166 +1,579 @@
 package org.bongiorno.edi.reader;
 
 import org.bongiorno.edi.reader.loops.EdiStructure;
-import org.bongiorno.edi.reader.loops.Loop;
-import org.bongiorno.edi.reader.tokenizer.CompositeElement;
+import org.bongiorno.edi.reader.loops.TransitionTable;
+import org.bongiorno.edi.reader.tokenizer.ByteSegmentScanner;
+import org.bongiorno.edi.reader.tokenizer.ChunkedFileScanner;
+import org.bongiorno.edi.reader.tokenizer.Delimiters;
 import org.bongiorno.edi.reader.tokenizer.EDITokenizer;
-import org.bongiorno.edi.reader.tokenizer.Element;
-import org.bongiorno.edi.reader.tokenizer.RepeatingElement;
-import org.apache.commons.collections4.map.LazyMap;
-import org.apache.commons.lang3.StringUtils;
+import org.bongiorno.edi.reader.tokenizer.MappedFileScanner;
+import org.bongiorno.edi.reader.tokenizer.PushTokenizer;
+import org.bongiorno.edi.reader.tokenizer.SegmentCursor;
+import org.bongiorno.edi.reader.tokenizer.SegmentScanner;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.AttributesImpl;
 
+import org.xml.sax.InputSource;
+
+import javax.xml.stream.XMLStreamReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.function.BiConsumer;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class EdiReader extends AbstractXMLReader{
 
     private boolean includeEmptyElements = true;
 
-    private String rootElement;
+    private final EdiReaderConfig config;
+
+    private ForkJoinPool pool;
+
+    private final Deque<String> elementStack = new ArrayDeque<>();
+
+    private TransitionTable.State loopState;
+
+    private Projection projection;
+
+    /**
+     * what the projection takes from the current loop
+     */
+    private Projection.Scope scope;
+
+    /**
+     * true while the segment being handled hasn't turned out to be projected, so the elements it starts wait until
+     * something projected inside them does
+     */
+    private boolean deferring;
+
+    /**
+     * the attributes of the waiting elements, which are the top of the element stack, newest first
+     */
+    private final Deque<Attributes> deferred = new ArrayDeque<>();
+
+    private final Map<String,Set<Integer>> attDefs;
 
-    private Deque<String> elementStack = new LinkedList<>();
+    private static final Attributes NO_ATTRIBUTES = new AttributesImpl();
 
-    private Deque<Loop> loopStack = new LinkedList<>();
+    /**
+     * bytes of input between checkpoints, 0 for none
+     */
+    private long checkpointInterval;
 
-    private Map<String, BiConsumer<List<Element>, EDITokenizer>> segmentHandlers;
+    private Consumer<Checkpoint> checkpoints;
 
-    private Map<String,Set<Integer>> attDefs;
+    private long nextCheckpoint;
+
+    /**
+     * the attributes of the open elements by depth, only kept while checkpointing
+     */
+    private Attributes[] openAttributes = new Attributes[16];
+
+    /**
+     * reused for the characters of every element
+     */
+    private char[] text = new char[256];
+
+    /**
+     * reused for every element with attributes; handlers only get to look at attributes during startElement
+     */
+    private final EdiAttributes attributes = new EdiAttributes();
 
     public EdiReader(String rootElement, EdiStructure structure){
-        loopStack.push(structure.getRootLoop());
-        this.rootElement = rootElement;
-        this.attDefs = structure.getAttributeDefinitions().stream().collect(Collectors.toMap(a -> a.name,a -> a.position));
+        this(new EdiReaderConfig(rootElement, structure));
+    }
 
-        BiConsumer<List<Element>, EDITokenizer> startElement = (segment, tokenizer) -> {
-            String segId = segment.get(0).toString();
+    /**
+     * Readers that share a config only hold the state of the parse in progress, so they're cheap to create, and with
+     * {@link #reset()} cheap to reuse; see {@link EdiReaderPool}.
+     */
+    public EdiReader(EdiReaderConfig config){
+        this.config = config;
+        this.attDefs = config.getStructure().getAttributePositions();
+        reset();
+    }
 
-            Set<Integer> attribPositions = this.attDefs.getOrDefault(segId, Collections.emptySet());
-            EdiAttributes attributes = new EdiAttributes();
-            for (Integer position : attribPositions) {
-                attributes.add(String.format("%s%02d",segId,position),segment.get(position).toString());
-            }
+    public EdiReaderConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Forgets the state of the last parse, even one that failed part way through. Every parse starts with a reset, so
+     * this is only needed to let go of a finished parse's state early.
+     */
+    public void reset() {
+        elementStack.clear();
+        deferred.clear();
+        deferring = false;
+        enter(config.getStructure().getTransitionTable().getRoot());
+    }
 
-            startElement(segId,attributes);
-        };
+    /**
+     * Only report what the projection asks for. Loop structure is still tracked in full, but segments outside the
+     * projection aren't turned into events, and scanners that allow it don't even split them into elements.
+     *
+     * @param projection null to report everything
+     */
+    public void setProjection(Projection projection) {
+        this.projection = projection;
+        reset();
+    }
 
-        BiConsumer<List<Element>, EDITokenizer> startIsaElement = (segment, tokenizer) -> {
-            String segId = segment.get(0).toString();
-            startElement(segId, new EdiAttributes("segmentDelimiter", tokenizer.getSegmentDelimiter(),
-                    "elementDelimiter", tokenizer.getElementDelimiter().toString(),
-                    "compositeDelimiter", tokenizer.getCompositeDelimiter().toString(),
-                    "repetitionSeparator", tokenizer.getRepetitionSeparator().toString()));
-        };
+    public Projection getProjection() {
+        return projection;
+    }
 
-        BiConsumer<List<Element>, EDITokenizer> createSubElements = (segment, tokenizer) -> {
-            String segId = segment.get(0).toString();
-            Set<Integer> attribPositions = this.attDefs.getOrDefault(segId, Collections.emptySet());
-            try {
-                for (int i = 1; i < segment.size(); ++i) {
-                    if(!attribPositions.contains(i)) {
-                        String name = String.format("%s%02d", segId, i);
-                        addElement(name, segment.get(i));
-                    }
+    /**
+     * Take a checkpoint about every interval bytes of input, at the first segment boundary past it, so that a parse
+     * that fails can be carried on with {@link #resume(Path, Checkpoint)} rather than started over. Handlers that
+     * implement {@link ResumableHandler} get to save their own state first. Only input scanned as bytes, memory mapped
+     * files for example, is checkpointed, and files are parsed sequentially even with a pool.
+     *
+     * @param interval 0 to stop taking checkpoints
+     * @param checkpoints gets every checkpoint as it's taken, on the parsing thread
+     */
+    public void setCheckpoints(long interval, Consumer<Checkpoint> checkpoints) {
+        this.checkpointInterval = interval;
+        this.checkpoints = checkpoints;
+    }
+
+    /**
+     * Parse the transaction sets of memory mapped files on this pool. Events still come out in document order, on the
+     * thread that called parse. Other inputs are parsed sequentially regardless.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * An input that is only a system id naming a regular file gets memory mapped instead of read through a stream.
+     */
+    @Override
+    public void parse(InputSource input) throws IOException, SAXException {
+        Path file = regularFile(input);
+        if (file != null && pool != null && checkpointInterval == 0 && ByteSegmentScanner.isAsciiCompatible(charset(input))) {
+            new ParallelParser(this, pool, file, charset(input)).parse();
+        } else {
+            parse(open(input));
+        }
+    }
+
+    /**
+     * @return a tokenizer for the input, memory mapping it if it's only a system id naming a regular file
+     */
+    public static EDITokenizer open(InputSource input) throws IOException {
+        Path file = regularFile(input);
+        if (file != null) {
+            return EDITokenizer.open(file, charset(input));
+        } else if (input.getCharacterStream() == null) {
+            // bytes are scanned as they are when the charset allows; see EDITokenizer(InputStream, Charset)
+            InputStream in = input.getByteStream() != null ? input.getByteStream() : new URL(input.getSystemId()).openStream();
+            return new EDITokenizer(in, charset(input));
+        } else {
+            return new EDITokenizer(input.getCharacterStream());
+        }
+    }
+
+    private static Charset charset(InputSource input) {
+        String encoding = input.getEncoding();
+        return encoding == null ? Charset.defaultCharset() : Charset.forName(encoding);
+    }
+
+    @Override
+    public void parse(Reader reader) throws IOException, SAXException {
+        parse(new EDITokenizer(reader));
+    }
+
+    public void parse(EDITokenizer tokenizer) throws IOException, SAXException {
+        try {
+            start();
+            parseSegments(tokenizer.cursor());
+            end();
+        } finally {
+            tokenizer.close();
+        }
+    }
+
+    /**
+     * Parses one entry of an index, a transaction set or a single claim for example, reading only its byte range. The
+     * document is the root element with the entry's element in it.
+     *
+     * @throws IOException if the file has changed since it was indexed
+     * @throws IllegalArgumentException if the index was built for another version of this reader's structure
+     */
+    public void parse(Path file, EdiIndex index, EdiIndex.Entry entry) throws IOException, SAXException {
+        TransitionTable.State state = index.startState(config.getStructure(), entry);
+        EDITokenizer tokenizer = index.open(file, entry);
+        try {
+            start();
+            enter(state);
+            parseSegments(tokenizer.cursor());
+            end();
+        } finally {
+            tokenizer.close();
+        }
+    }
+
+    /**
+     * Carries on a parse of the file from a checkpoint. The content handler sees the rest of the document as it would
+     * have without the interruption: a {@link ResumableHandler} is resumed, any other handler gets startDocument and
+     * the start of every element that was open at the checkpoint first. Checkpoints go on being taken as configured.
+     *
+     * @throws IOException if the file has changed since the checkpoint was taken
+     * @throws IllegalArgumentException if the checkpoint was taken with another version of this reader's structure, or
+     * another projection
+     */
+    public void resume(Path file, Checkpoint checkpoint) throws IOException, SAXException {
+        if (!checkpoint.isCurrent(file)) {
+            throw new IOException(file + " has changed since the checkpoint was taken");
+        }
+        if (!checkpoint.isFor(projection)) {
+            throw new IllegalArgumentException("The checkpoint was taken with a different projection");
+        }
+        TransitionTable.State state = checkpoint.getLoopState(config.getStructure().getTransitionTable());
+        EDITokenizer tokenizer = EDITokenizer.open(file, checkpoint.getCharset(), checkpoint.getDelimiters(),
+                checkpoint.getOffset(), Files.size(file));
+        try {
+            reset();
+            if (contentHandler instanceof ResumableHandler) {
+                ((ResumableHandler) contentHandler).resume(checkpoint.getHandlerState());
+                for (int i = 0; i < checkpoint.getDepth(); ++i) {
+                    elementStack.push(checkpoint.getElement(i));
+                    opened(checkpoint.getAttributes(i));
                 }
+            } else {
+                contentHandler.startDocument();
+                for (int i = 0; i < checkpoint.getDepth(); ++i) {
+                    startElement(checkpoint.getElement(i), checkpoint.getAttributes(i));
+                }
+            }
+            enter(state);
+            nextCheckpoint = checkpoint.getOffset() + checkpointInterval;
+            parseSegments(tokenizer.cursor());
+            end();
+        } finally {
+            tokenizer.close();
+        }
+    }
+
+    /**
+     * For input that arrives in pieces, e.g. from a non-blocking channel. The document starts now; feed the input to
+     * the returned tokenizer, which drives this reader as each segment completes, and endOfInput() ends the document.
+     */
+    public PushTokenizer pushTokenizer(Charset charset) throws SAXException {
+        start();
+        PushTokenizer tokenizer = new PushTokenizer(charset, this::handle, () -> {
+            try {
+                end();
             } catch (SAXException e) {
                 throw new RuntimeException(e);
             }
-        };
+        });
+        skipUnprojected(tokenizer);
+        return tokenizer;
+    }
 
-        BiConsumer<List<Element>, EDITokenizer> popToRootLoop = (x,y) -> {
-            while (loopStack.size() > 1){
-                endElement();
-                loopStack.pop();
+    /**
+     * Parses lazily, for consumers that can't keep up with a ContentHandler. Every instance of the named elements,
+     * loops like "Loop2300" or segments like "CLM", comes out as a DOM element once it is complete, and segments are
+     * only read as elements are taken from the stream. This reader's content handler is replaced. Closing the stream
+     * closes the tokenizer.
+     */
+    public Stream<org.w3c.dom.Element> stream(EDITokenizer tokenizer, String... names) throws SAXException {
+        LoopSpliterator spliterator = new LoopSpliterator(this, tokenizer, new HashSet<>(Arrays.asList(names)));
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                tokenizer.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Parses as events are pulled from the returned reader, one segment at a time, so consumers can skip what they
+     * don't need or hand the reader to an Unmarshaller to bind a single element. This reader's content handler is
+     * replaced. Closing the stream reader closes the tokenizer.
+     */
+    public XMLStreamReader xmlStreamReader(EDITokenizer tokenizer) throws SAXException {
+        return new EdiStreamReader(this, tokenizer);
+    }
+
+    void parseSegments(SegmentCursor cursor) throws IOException {
+        skipUnprojected(cursor);
+        while (cursor.advance()) {
+            if (checkpointInterval > 0) {
+                checkpoint(cursor);
+            }
+            handle(cursor);
+        }
+    }
+
+    /**
+     * Takes a checkpoint before the segment if it's due. Every segment boundary is somewhere a parse can carry on from,
+     * as long as no element is waiting on the projection.
+     */
+    private void checkpoint(SegmentCursor cursor) {
+        if (!(cursor instanceof ByteSegmentScanner) || ((ByteSegmentScanner) cursor).segmentOffset() < nextCheckpoint
+                || !deferred.isEmpty()) {
+            return;
+        }
+        ByteSegmentScanner scanner = (ByteSegmentScanner) cursor;
+        try {
+            byte[] handlerState = null;
+            if (contentHandler instanceof ResumableHandler) {
+                handlerState = ((ResumableHandler) contentHandler).checkpoint();
             }
-        };
+            String[] elements = new String[elementStack.size()];
+            Iterator<String> names = elementStack.descendingIterator();
+            for (int i = 0; i < elements.length; ++i) {
+                elements[i] = names.next();
+            }
+            // so the checkpoint is only ever applied to the same file
+            Path file = scanner instanceof MappedFileScanner ? ((MappedFileScanner) scanner).getFile() : null;
+            long fileSize = file == null ? -1 : Files.size(file);
+            long lastModified = file == null ? -1 : Files.getLastModifiedTime(file).toMillis();
+            TransitionTable table = config.getStructure().getTransitionTable();
+            checkpoints.accept(new Checkpoint(scanner.segmentOffset(), loopState.getIndex(), table.getSignature(), elements,
+                    Arrays.copyOf(openAttributes, elements.length), scanner.getDelimiters(), scanner.getCharset(), handlerState,
+                    fileSize, lastModified, projection == null ? null : projection.getPaths()));
+        } catch (SAXException | IOException e) {
+            throw new RuntimeException(e);
+        }
+        nextCheckpoint = scanner.segmentOffset() + checkpointInterval;
+    }
+
+    /**
+     * Keeps the attributes of the element just pushed, if checkpoints will need them.
+     */
+    private void opened(Attributes attributes) {
+        if (checkpointInterval > 0) {
+            keep(elementStack.size() - 1, copy(attributes));
+        }
+    }
+
+    private void keep(int depth, Attributes attributes) {
+        if (depth >= openAttributes.length) {
+            openAttributes = Arrays.copyOf(openAttributes, Math.max(depth + 1, openAttributes.length << 1));
+        }
+        openAttributes[depth] = attributes;
+    }
 
-        BiConsumer<List<Element>, EDITokenizer> endElement = (x,y) -> endElement();
+    /**
+     * @return attributes that stay valid after startElement returns
+     */
+    private static Attributes copy(Attributes attributes) {
+        return attributes.getLength() == 0 ? NO_ATTRIBUTES : new AttributesImpl(attributes);
+    }
 
-        BiConsumer<List<Element>, EDITokenizer> doTransition = (segment,x) -> transitionLevel(segment);
+    void handle(SegmentCursor cursor) {
+        deferring = projection != null;
+        config.getHandler(cursor.segmentId()).accept(this, cursor);
+    }
 
-        BiConsumer<List<Element>, EDITokenizer> defaultCase = doTransition.andThen(startElement).andThen(createSubElements).andThen(endElement);
+    private void skipUnprojected(SegmentCursor cursor) {
+        // a chunked scanner asks ahead of the loop state, so it can't tell what opens a loop
+        if (cursor instanceof SegmentScanner && !(cursor instanceof ChunkedFileScanner)) {
+            ((SegmentScanner) cursor).setSkip(projection == null ? null : this::skips);
+        }
+    }
 
-        segmentHandlers = LazyMap.lazyMap(new HashMap<>(), x -> defaultCase);
+    /**
+     * @return true if nothing will read the segment's elements: it's outside the projection, can't start a loop and
+     * isn't one of the segments with a handler of its own
+     */
+    private boolean skips(String segmentId) {
+        return !scope.includes(segmentId) && !loopState.opensLoop(segmentId) && !config.hasHandler(segmentId);
+    }
 
-        String endOfLoops = structure.getLoopsEnd();
-        if(StringUtils.isNotEmpty(endOfLoops)){
-            segmentHandlers.put(endOfLoops, popToRootLoop.andThen(defaultCase));
+    /**
+     * @return true, and the segment's elements are reported, if the segment is in the projection
+     */
+    boolean project(SegmentCursor segment) {
+        if (projection == null || scope.includes(segment.segmentId())) {
+            emit();
+            return true;
         }
-        segmentHandlers.put("ISA", startIsaElement.andThen(createSubElements));
-        segmentHandlers.put("GS", startElement.andThen(createSubElements));
-        segmentHandlers.put("ST", startElement.andThen(createSubElements));
-        segmentHandlers.put("SE", popToRootLoop.andThen(endElement));
-        segmentHandlers.put("GE", endElement);
-        segmentHandlers.put("IEA", endElement);
+        return false;
     }
 
-    @Override
-    public void parse(Reader reader) throws IOException, SAXException {
-        EDITokenizer tokenizer = new EDITokenizer(reader);
-        start();
-        for (List<Element> segment : tokenizer) {
-            String segId = segment.get(0).toString();
-            segmentHandlers.get(segId).accept(segment, tokenizer);
+    /**
+     * Reports the elements the segment being handled starts, whatever the projection.
+     */
+    void emit() {
+        deferring = false;
+    }
+
+    /**
+     * @return a reader for the same structure with its own loop stack, for parsing transaction sets on another thread
+     */
+    EdiReader newWorker() {
+        EdiReader worker = new EdiReader(config);
+        worker.setProjection(projection);
+        return worker;
+    }
+
+    boolean atRootLoop() {
+        return loopState.getParent() == null;
+    }
+
+    private static Path regularFile(InputSource input) {
+        String systemId = input.getSystemId();
+        if (systemId == null || input.getByteStream() != null || input.getCharacterStream() != null) {
+            return null;
+        }
+        Path path;
+        try {
+            path = systemId.startsWith("file:") ? Paths.get(URI.create(systemId)) : Paths.get(systemId);
+        } catch (IllegalArgumentException | FileSystemNotFoundException e) {
+            return null;
         }
-        end();
-        reader.close();
+        return Files.isRegularFile(path) ? path : null;
     }
 
-    private void start() throws SAXException {
+    void start() throws SAXException {
+        reset();
+        nextCheckpoint = checkpointInterval;
         contentHandler.startDocument();
-        startElement(rootElement);
+        startElement(config.getRootElement());
     }
 
-    private void end() throws SAXException {
+    void end() throws SAXException {
         while(!elementStack.isEmpty()) {
             endElement();
         }
         contentHandler.endDocument();
     }
 
-    private void transitionLevel(List<Element> segment) {
-        int levelsToPop = 0;
-        Iterator<Loop> iterator = loopStack.iterator();
-        Loop nextLoop = iterator.next().getTransition(segment);
-        while(nextLoop == null && iterator.hasNext()){
-            ++levelsToPop;
-            nextLoop = iterator.next().getTransition(segment);
+    void startSegment(SegmentCursor segment) {
+        String segId = segment.segmentId();
+
+        Set<Integer> attribPositions = this.attDefs.getOrDefault(segId, Collections.emptySet());
+        if (attribPositions.isEmpty()) {
+            startElement(segId);
+            return;
         }
+        String[] names = config.getElementNames(segId, segment.elementCount());
+        attributes.clear();
+        for (Integer position : attribPositions) {
+            attributes.add(names[position], segment.element(position).toString());
+        }
+        startElement(segId, attributes);
+    }
 
-        if(nextLoop != null){
-            for(int i = 0; i < levelsToPop; ++i){
-                endElement();
-                loopStack.pop();
+    void startIsaSegment(SegmentCursor segment) {
+        String segId = segment.segmentId();
+        Delimiters delimiters = segment.getDelimiters();
+        startElement(segId, new EdiAttributes("segmentDelimiter", delimiters.getSegmentDelimiter(),
+                "elementDelimiter", String.valueOf(delimiters.getElementDelimiter()),
+                "compositeDelimiter", String.valueOf(delimiters.getCompositeDelimiter()),
+                "repetitionSeparator", String.valueOf(delimiters.getRepetitionSeparator())));
+    }
+
+    void addSubElements(SegmentCursor segment) {
+        String segId = segment.segmentId();
+        Set<Integer> attribPositions = this.attDefs.getOrDefault(segId, Collections.emptySet());
+        int count = segment.elementCount();
+        String[] names = config.getElementNames(segId, count);
+        try {
+            for (int i = 1; i < count; ++i) {
+                if(!attribPositions.contains(i)) {
+                    addElement(names[i], segment, i);
+                }
             }
-            String loopName = nextLoop.getName();
-            if(loopName != null){
-                startElement(loopName);
+        } catch (SAXException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    void popToRootLoop() {
+        while (loopState.getParent() != null){
+            endElement();
+            enter(loopState.getParent());
+        }
+    }
+
+    void transitionLevel(SegmentCursor segment) {
+        TransitionTable.Transition transition = loopState.transition(segment);
+        if(transition != null){
+            for(int i = 0; i < transition.getPops(); ++i){
+                endElement();
             }
-            loopStack.push(nextLoop);
+            enter(transition.getTarget());
+            startElement(loopState.getElementName());
         }
     }
 
+    private void enter(TransitionTable.State state) {
+        loopState = state;
+        scope = projection == null ? null : projection.scope(state);
+    }
+
     private void startElement(String elementName) {
-        this.startElement(elementName, new AttributesImpl());
+        this.startElement(elementName, NO_ATTRIBUTES);
     }
 
+    /**
+     * Names are always interned already: segment ids by the tokenizer, and everything else by the config or the loops.
+     */
     private void startElement(String elementName, Attributes attributes) {
-        elementName = elementName.intern();
-        elementStack.push(elementName);
+        if (deferring) {
+            elementStack.push(elementName);
+            deferred.push(copy(attributes));
+            return;
+        }
         try {
+            startDeferred();
+            elementStack.push(elementName);
+            opened(attributes);
             contentHandler.startElement("", elementName, elementName, attributes);
         } catch (SAXException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private void endElement() {
+    /**
+     * Starts the elements that were waiting for something projected, outermost first.
+     */
+    private void startDeferred() throws SAXException {
+        if (deferred.isEmpty()) {
+            return;
+        }
+        Iterator<String> names = elementStack.descendingIterator();
+        for (int i = elementStack.size() - deferred.size(); i > 0; --i) {
+            names.next();
+        }
+        int depth = elementStack.size() - deferred.size();
+        for (Iterator<Attributes> attributes = deferred.descendingIterator(); attributes.hasNext(); ++depth) {
+            String name = names.next();
+            Attributes next = attributes.next();
+            if (checkpointInterval > 0) {
+                keep(depth, next);
+            }
+            contentHandler.startElement("", name, name, next);
+        }
+        deferred.clear();
+    }
+
+    void endElement() {
         String name = elementStack.pop();
+        if (!deferred.isEmpty()) {
+            // never started, so nothing to end
+            deferred.pop();
+            return;
+        }
         try {
             contentHandler.endElement("", name, name);
         } catch (SAXException e) {
@@ -168,59 +581,80 @@ public class EdiReader extends AbstractXMLReader{
         }
     }
 
-    private void characters(String string) throws SAXException {
-        char[] chars = string.toCharArray();
-        contentHandler.characters(chars, 0, chars.length);
+    /**
+     * The element is copied into text once and every piece of it, repetitions and composite parts alike, goes to the
+     * content handler straight from there.
+     */
+    private void addElement(String elementName, SegmentCursor segment, int index) throws SAXException {
+        int length = segment.element(index).length();
+        if(text.length < length){
+            text = new char[Math.max(length, text.length << 1)];
+        }
+        length = segment.elementChars(index, text);
+
+        Delimiters delimiters = segment.getDelimiters();
+        char repetitionSeparator = delimiters.getRepetitionSeparator();
+        char compositeDelimiter = delimiters.getCompositeDelimiter();
+        int start = 0;
+        for (int i = 0; i <= length; ++i) {
+            if (i == length || text[i] == repetitionSeparator) {
+                addElement(elementName, start, i, compositeDelimiter);
+                start = i + 1;
+            }
+        }
     }
 
-    private void addElement(String elementName, Element content) throws SAXException {
-        if(content instanceof RepeatingElement){
-            addElement(elementName, (RepeatingElement) content);
-        }else if(content instanceof CompositeElement){
-            addElement(elementName, (CompositeElement) content);
-        }else{
-            this.addElement(elementName, content.toString());            
+    /**
+     * One repetition of an element, text[start, end).
+     */
+    private void addElement(String elementName, int start, int end, char compositeDelimiter) throws SAXException {
+        for (int i = start; i < end; ++i) {
+            if (text[i] == compositeDelimiter) {
+                addComposite(elementName, start, end, compositeDelimiter);
+                return;
+            }
         }
+        addElement(elementName, NO_ATTRIBUTES, start, end);
     }
 
-    private void addElement(String elementName, CompositeElement content) throws SAXException {
+    private void addComposite(String elementName, int start, int end, char compositeDelimiter) throws SAXException {
         Set<Integer> attribPositions = this.attDefs.getOrDefault(elementName, Collections.emptySet());
-        EdiAttributes attributes = new EdiAttributes();
-        for (Integer position : attribPositions) {
-            attributes.add(String.format("C%02d",position), content.getPart(position-1));
-        }
-
-        startElement(elementName,attributes);
-        int i = 1;
-        for (String s : content.getParts()) {
-            int position = i++;
-            if(!attribPositions.contains(position)) {
-                String name = String.format("C%02d", position);
-                this.addElement(name, s);
+        Attributes partAttributes = NO_ATTRIBUTES;
+        if (!attribPositions.isEmpty()) {
+            attributes.clear();
+            int position = 1;
+            int partStart = start;
+            for (int i = start; i <= end; ++i) {
+                if (i == end || text[i] == compositeDelimiter) {
+                    if (attribPositions.contains(position)) {
+                        attributes.add(ElementNames.composite(position), new String(text, partStart, i - partStart));
+                    }
+                    ++position;
+                    partStart = i + 1;
+                }
             }
+            partAttributes = attributes;
         }
-        endElement();
-    }
 
-    private void addElement(String elementName, RepeatingElement content) throws SAXException {
-        for (Element element : content.getElements()) {
-            addElement(elementName, element);
+        startElement(elementName, partAttributes);
+        int position = 1;
+        int partStart = start;
+        for (int i = start; i <= end; ++i) {
+            if (i == end || text[i] == compositeDelimiter) {
+                if (!attribPositions.contains(position)) {
+                    addElement(ElementNames.composite(position), NO_ATTRIBUTES, partStart, i);
+                }
+                ++position;
+                partStart = i + 1;
+            }
         }
-    }
-
-    private void addElement(String elementName, String content) throws SAXException {
-        this.addElement(elementName, new AttributesImpl(), content);
-    }
-
-    private void addElement(String elementName, Attributes attributes) throws SAXException {
-        startElement(elementName, attributes);
         endElement();
     }
 
-    private void addElement(String elementName, Attributes attributes, String content) throws SAXException {
-        if(includeEmptyElements || StringUtils.isNotEmpty(content) || attributes.getLength() > 0) {
+    private void addElement(String elementName, Attributes attributes, int start, int end) throws SAXException {
+        if(includeEmptyElements || end > start || attributes.getLength() > 0) {
             startElement(elementName, attributes);
-            characters(content);
+            contentHandler.characters(text, start, end - start);
             endElement();
         }
     }
@@ -0,0 +1,93 @@
+package org.bongiorno.edi.reader;
+
+import org.bongiorno.edi.reader.loops.EdiStructure;
+import org.bongiorno.edi.reader.tokenizer.SegmentCursor;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Everything an {@link EdiReader} derives from its structure: the root element, what to do with each segment id and
+ * the names of the elements it emits. Thread safe, so any number of readers, on any number of threads, can share one.
+ */
+public final class EdiReaderConfig {
+
+    private final String rootElement;
+
+    private final EdiStructure structure;
+
+    private final Map<String, BiConsumer<EdiReader, SegmentCursor>> segmentHandlers;
+
+    private final BiConsumer<EdiReader, SegmentCursor> defaultHandler;
+
+    private final ElementNames elementNames = new ElementNames();
+
+    public EdiReaderConfig(String rootElement, EdiStructure structure) {
+        this.rootElement = rootElement.intern();
+        this.structure = structure;
+
+        BiConsumer<EdiReader, SegmentCursor> startElement = EdiReader::startSegment;
+        BiConsumer<EdiReader, SegmentCursor> startIsaElement = EdiReader::startIsaSegment;
+        BiConsumer<EdiReader, SegmentCursor> createSubElements = projected(EdiReader::addSubElements);
+        BiConsumer<EdiReader, SegmentCursor> popToRootLoop = (reader, x) -> reader.popToRootLoop();
+        BiConsumer<EdiReader, SegmentCursor> endElement = (reader, x) -> reader.endElement();
+        BiConsumer<EdiReader, SegmentCursor> doTransition = EdiReader::transitionLevel;
+        // the interchange and group show up whatever the projection
+        BiConsumer<EdiReader, SegmentCursor> envelope = (reader, x) -> reader.emit();
+
+        defaultHandler = doTransition.andThen(projected(startElement.andThen(createSubElements).andThen(endElement)));
+
+        Map<String, BiConsumer<EdiReader, SegmentCursor>> handlers = new HashMap<>();
+        String endOfLoops = structure.getLoopsEnd();
+        if(StringUtils.isNotEmpty(endOfLoops)){
+            handlers.put(endOfLoops, popToRootLoop.andThen(defaultHandler));
+        }
+        handlers.put("ISA", envelope.andThen(startIsaElement).andThen(createSubElements));
+        handlers.put("GS", envelope.andThen(startElement).andThen(createSubElements));
+        handlers.put("ST", startElement.andThen(createSubElements));
+        handlers.put("SE", popToRootLoop.andThen(endElement));
+        handlers.put("GE", endElement);
+        handlers.put("IEA", endElement);
+        segmentHandlers = Collections.unmodifiableMap(handlers);
+    }
+
+    /**
+     * @return the handler, run only for segments in the reader's projection
+     */
+    private static BiConsumer<EdiReader, SegmentCursor> projected(BiConsumer<EdiReader, SegmentCursor> handler) {
+        return (reader, segment) -> {
+            if (reader.project(segment)) {
+                handler.accept(reader, segment);
+            }
+        };
+    }
+
+    public String getRootElement() {
+        return rootElement;
+    }
+
+    public EdiStructure getStructure() {
+        return structure;
+    }
+
+    /**
+     * @see ElementNames#of(String, int)
+     */
+    String[] getElementNames(String segmentId, int count) {
+        return elementNames.of(segmentId, count);
+    }
+
+    /**
+     * @return true if the segment id has a handler of its own, rather than the one for segments in loops
+     */
+    boolean hasHandler(String segmentId) {
+        return segmentHandlers.containsKey(segmentId);
+    }
+
+    BiConsumer<EdiReader, SegmentCursor> getHandler(String segmentId) {
+        return segmentHandlers.getOrDefault(segmentId, defaultHandler);
+    }
+}
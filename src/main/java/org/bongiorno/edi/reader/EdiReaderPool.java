@@ -0,0 +1,63 @@
+package org.bongiorno.edi.reader;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Keeps up to maxIdle readers of one config for reuse, so a service parsing many small documents doesn't build a
+ * reader, and its buffers, per document. Borrowing never blocks: when every reader is out a new one is made, and
+ * readers released to a full pool are dropped. Thread safe.
+ */
+public class EdiReaderPool {
+
+    private final EdiReaderConfig config;
+
+    private final BlockingQueue<EdiReader> idle;
+
+    public EdiReaderPool(EdiReaderConfig config, int maxIdle) {
+        this.config = config;
+        this.idle = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    public EdiReaderConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return a reader that belongs to the caller until it's {@link #release(EdiReader) released}
+     */
+    public EdiReader borrow() {
+        EdiReader reader = idle.poll();
+        return reader == null ? new EdiReader(config) : reader;
+    }
+
+    public void release(EdiReader reader) {
+        if (reader.getConfig() != config) {
+            throw new IllegalArgumentException("The reader wasn't created for this pool's config");
+        }
+        reader.reset();
+        reader.setContentHandler(null);
+        reader.setPool(null);
+        reader.setProjection(null);
+        reader.setCheckpoints(0, null);
+        idle.offer(reader);
+    }
+
+    /**
+     * Parses the input with a pooled reader.
+     */
+    public void parse(InputSource input, ContentHandler handler) throws IOException, SAXException {
+        EdiReader reader = borrow();
+        try {
+            reader.setContentHandler(handler);
+            reader.parse(input);
+        } finally {
+            release(reader);
+        }
+    }
+}
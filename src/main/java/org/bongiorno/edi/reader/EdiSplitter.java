@@ -0,0 +1,175 @@
+package org.bongiorno.edi.reader;
+
+import org.bongiorno.edi.reader.tokenizer.Delimiters;
+import org.bongiorno.edi.reader.tokenizer.MappedFileScanner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits an interchange into smaller interchanges of a few transaction sets each, without parsing them: only the ISA
+ * and GS segments are split into elements, every other segment is only scanned for where it ends. Each piece gets the
+ * ISA and GS of the functional group its transaction sets came from, with their control numbers kept, and a GE and IEA
+ * counting what it holds. The transaction sets themselves are copied from file to file with
+ * {@link FileChannel#transferTo}. A piece never spans two functional groups.
+ */
+public final class EdiSplitter {
+
+    private final Path file;
+
+    private final Charset charset;
+
+    private final int transactionsPerFile;
+
+    private final Path outDir;
+
+    private FileChannel in;
+
+    private Delimiters delimiters;
+
+    private String isa;
+
+    private String interchangeControlNumber;
+
+    private String gs;
+
+    private String groupControlNumber;
+
+    /**
+     * the start of the first transaction set of the piece being collected, and the end of its last SE
+     */
+    private long piece = -1;
+
+    private long pieceEnd;
+
+    private int transactions;
+
+    private long transactionStart = -1;
+
+    private final List<Path> written = new ArrayList<>();
+
+    private EdiSplitter(Path file, Charset charset, int transactionsPerFile, Path outDir) {
+        if (transactionsPerFile < 1) {
+            throw new IllegalArgumentException("Can't split into pieces of " + transactionsPerFile + " transaction sets");
+        }
+        this.file = file;
+        this.charset = charset;
+        this.transactionsPerFile = transactionsPerFile;
+        this.outDir = outDir;
+    }
+
+    /**
+     * Writes the pieces to the directory, named after the file with a number added: in.dat becomes in-1.dat, in-2.dat
+     * and so on, in the order their transaction sets appear.
+     *
+     * @param charset one that can be scanned as bytes, see
+     *                {@link org.bongiorno.edi.reader.tokenizer.ByteSegmentScanner#isAsciiCompatible(Charset)}
+     * @return the files written
+     * @throws IOException if a transaction set is missing its ST or SE
+     */
+    public static List<Path> split(Path file, Charset charset, int transactionsPerFile, Path outDir) throws IOException {
+        EdiSplitter splitter = new EdiSplitter(file, charset, transactionsPerFile, outDir);
+        splitter.split();
+        return splitter.written;
+    }
+
+    private void split() throws IOException {
+        try (MappedFileScanner scanner = new MappedFileScanner(file, charset);
+             FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            this.in = in;
+            this.delimiters = scanner.getDelimiters();
+            // the envelope is all that's read
+            scanner.setSkip(id -> !id.equals("ISA") && !id.equals("GS"));
+            while (scanner.advance()) {
+                long start = scanner.segmentOffset();
+                long end = start + scanner.segmentEnd() - scanner.segmentStart();
+                switch (scanner.segmentId()) {
+                    case "ISA":
+                        flush();
+                        isa = scanner.segmentString();
+                        interchangeControlNumber = scanner.elementString(13);
+                        break;
+                    case "GS":
+                        flush();
+                        gs = scanner.segmentString();
+                        groupControlNumber = scanner.elementString(6);
+                        break;
+                    case "ST":
+                        if (transactionStart >= 0) {
+                            throw new IOException("Transaction set at " + transactionStart + " has no SE before the ST at " + start);
+                        }
+                        transactionStart = start;
+                        break;
+                    case "SE":
+                        if (transactionStart < 0) {
+                            throw new IOException("SE at " + start + " has no ST");
+                        }
+                        if (piece < 0) {
+                            piece = transactionStart;
+                        }
+                        pieceEnd = end;
+                        transactionStart = -1;
+                        if (++transactions == transactionsPerFile) {
+                            flush();
+                        }
+                        break;
+                    case "GE":
+                    case "IEA":
+                        flush();
+                        break;
+                    default:
+                        // inside a transaction set, copied with it
+                }
+            }
+            if (transactionStart >= 0) {
+                throw new IOException("Transaction set at " + transactionStart + " has no SE");
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Writes out the transaction sets collected so far, if any.
+     */
+    private void flush() throws IOException {
+        if (piece < 0) {
+            return;
+        }
+        if (isa == null || gs == null) {
+            throw new IOException("Transaction set at " + piece + " isn't inside an ISA and GS");
+        }
+        String terminator = delimiters.getSegmentDelimiter();
+        char separator = delimiters.getElementDelimiter();
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        Path out = outDir.resolve(base + "-" + (written.size() + 1) + extension);
+        try (FileChannel channel = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, isa + terminator + gs + terminator);
+            for (long position = piece, end = pieceEnd; position < end; ) {
+                position += in.transferTo(position, end - position, channel);
+            }
+            write(channel, terminator
+                    + "GE" + separator + transactions + separator + groupControlNumber + terminator
+                    + "IEA" + separator + 1 + separator + interchangeControlNumber + terminator);
+        }
+        written.add(out);
+        piece = -1;
+        transactions = 0;
+    }
+
+    private void write(FileChannel channel, String segments) throws IOException {
+        ByteBuffer bytes = charset.encode(segments);
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package org.bongiorno.edi.reader;
+
+import org.bongiorno.edi.reader.tokenizer.EDITokenizer;
+import org.bongiorno.edi.reader.tokenizer.SegmentCursor;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A pull parser over an EdiReader. Segments are read one at a time as events are asked for: the reader's events for
+ * a segment are held until they've all been pulled, and then the next segment is read, so skipping a subtree is only
+ * a matter of calling next() past it, and an unmarshaller can be handed the reader at any element to bind just that
+ * element. There are no namespaces, and element text never comes in more than one piece.
+ */
+class EdiStreamReader extends DefaultHandler implements XMLStreamReader {
+
+    private static final Attributes NO_ATTRIBUTES = new AttributesImpl();
+
+    private static final NamespaceContext NO_NAMESPACES = new NamespaceContext() {
+        @Override
+        public String getNamespaceURI(String prefix) {
+            return XMLConstants.NULL_NS_URI;
+        }
+
+        @Override
+        public String getPrefix(String namespaceURI) {
+            return null;
+        }
+
+        @Override
+        public Iterator<String> getPrefixes(String namespaceURI) {
+            return Collections.emptyIterator();
+        }
+    };
+
+    private final EdiReader reader;
+
+    private final EDITokenizer tokenizer;
+
+    private final SegmentCursor cursor;
+
+    /**
+     * the events of the segment being pulled
+     */
+    private int[] types = new int[64];
+
+    private String[] names = new String[64];
+
+    private Attributes[] attributes = new Attributes[64];
+
+    private int[] textStarts = new int[64];
+
+    private int[] textLengths = new int[64];
+
+    private char[] text = new char[256];
+
+    private int textSize;
+
+    private int size;
+
+    private int current;
+
+    private int eventType = START_DOCUMENT;
+
+    private boolean ended;
+
+    private int segments;
+
+    EdiStreamReader(EdiReader reader, EDITokenizer tokenizer) throws SAXException {
+        this.reader = reader;
+        this.tokenizer = tokenizer;
+        this.cursor = tokenizer.cursor();
+        reader.setContentHandler(this);
+        reader.start();
+        current = -1;
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        if (eventType == END_DOCUMENT) {
+            throw new NoSuchElementException("The document has ended");
+        }
+        while (++current >= size) {
+            if (ended) {
+                eventType = END_DOCUMENT;
+                return eventType;
+            }
+            read();
+        }
+        eventType = types[current];
+        return eventType;
+    }
+
+    private void read() throws XMLStreamException {
+        size = 0;
+        textSize = 0;
+        current = -1;
+        try {
+            if (cursor.advance()) {
+                ++segments;
+                reader.handle(cursor);
+            } else {
+                ended = true;
+                reader.end();
+            }
+        } catch (IOException | SAXException e) {
+            throw new XMLStreamException(e);
+        } catch (RuntimeException e) {
+            throw new XMLStreamException(e.getCause() == null ? e : e.getCause());
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return eventType != END_DOCUMENT;
+    }
+
+    @Override
+    public int nextTag() throws XMLStreamException {
+        int type = next();
+        while (type == CHARACTERS && isWhiteSpace()) {
+            type = next();
+        }
+        if (type != START_ELEMENT && type != END_ELEMENT) {
+            throw new XMLStreamException("Expected a start or end tag", getLocation());
+        }
+        return type;
+    }
+
+    @Override
+    public String getElementText() throws XMLStreamException {
+        require(START_ELEMENT, null, null);
+        StringBuilder result = new StringBuilder();
+        for (int type = next(); type != END_ELEMENT; type = next()) {
+            if (type != CHARACTERS) {
+                throw new XMLStreamException(getLocalName() + " has more than text in it", getLocation());
+            }
+            result.append(text, textStarts[current], textLengths[current]);
+        }
+        return result.toString();
+    }
+
+    @Override
+    public void require(int type, String namespaceURI, String localName) throws XMLStreamException {
+        if (eventType != type) {
+            throw new XMLStreamException("Expected event " + type + " but was " + eventType, getLocation());
+        }
+        if (namespaceURI != null && !namespaceURI.isEmpty()) {
+            throw new XMLStreamException("EDI has no namespaces", getLocation());
+        }
+        if (localName != null && (!hasName() || !localName.equals(getLocalName()))) {
+            throw new XMLStreamException("Expected " + localName, getLocation());
+        }
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        try {
+            tokenizer.close();
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    @Override
+    public int getEventType() {
+        return eventType;
+    }
+
+    @Override
+    public boolean isStartElement() {
+        return eventType == START_ELEMENT;
+    }
+
+    @Override
+    public boolean isEndElement() {
+        return eventType == END_ELEMENT;
+    }
+
+    @Override
+    public boolean isCharacters() {
+        return eventType == CHARACTERS;
+    }
+
+    @Override
+    public boolean isWhiteSpace() {
+        if (eventType != CHARACTERS) {
+            return false;
+        }
+        for (int i = textStarts[current], end = i + textLengths[current]; i < end; ++i) {
+            if (!Character.isWhitespace(text[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean hasName() {
+        return eventType == START_ELEMENT || eventType == END_ELEMENT;
+    }
+
+    @Override
+    public QName getName() {
+        return new QName(getLocalName());
+    }
+
+    @Override
+    public String getLocalName() {
+        if (!hasName()) {
+            throw new IllegalStateException("No element at event " + eventType);
+        }
+        return names[current];
+    }
+
+    @Override
+    public String getNamespaceURI() {
+        return null;
+    }
+
+    @Override
+    public String getPrefix() {
+        return null;
+    }
+
+    @Override
+    public int getAttributeCount() {
+        return startAttributes().getLength();
+    }
+
+    @Override
+    public QName getAttributeName(int index) {
+        return new QName(getAttributeLocalName(index));
+    }
+
+    @Override
+    public String getAttributeLocalName(int index) {
+        return startAttributes().getLocalName(index);
+    }
+
+    @Override
+    public String getAttributeNamespace(int index) {
+        return null;
+    }
+
+    @Override
+    public String getAttributePrefix(int index) {
+        return null;
+    }
+
+    @Override
+    public String getAttributeType(int index) {
+        return "CDATA";
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        return startAttributes().getValue(index);
+    }
+
+    @Override
+    public String getAttributeValue(String namespaceURI, String localName) {
+        return startAttributes().getValue(localName);
+    }
+
+    @Override
+    public boolean isAttributeSpecified(int index) {
+        return true;
+    }
+
+    private Attributes startAttributes() {
+        if (eventType != START_ELEMENT) {
+            throw new IllegalStateException("No attributes at event " + eventType);
+        }
+        return attributes[current];
+    }
+
+    @Override
+    public int getNamespaceCount() {
+        return 0;
+    }
+
+    @Override
+    public String getNamespacePrefix(int index) {
+        throw new IndexOutOfBoundsException("EDI has no namespaces");
+    }
+
+    @Override
+    public String getNamespaceURI(int index) {
+        throw new IndexOutOfBoundsException("EDI has no namespaces");
+    }
+
+    @Override
+    public String getNamespaceURI(String prefix) {
+        return null;
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        return NO_NAMESPACES;
+    }
+
+    @Override
+    public boolean hasText() {
+        return eventType == CHARACTERS;
+    }
+
+    @Override
+    public String getText() {
+        return new String(getTextCharacters(), getTextStart(), getTextLength());
+    }
+
+    /**
+     * @return a buffer that's reused for the next segment
+     */
+    @Override
+    public char[] getTextCharacters() {
+        checkText();
+        return text;
+    }
+
+    @Override
+    public int getTextCharacters(int sourceStart, char[] target, int targetStart, int length) {
+        int available = Math.max(0, Math.min(length, getTextLength() - sourceStart));
+        System.arraycopy(getTextCharacters(), getTextStart() + sourceStart, target, targetStart, available);
+        return available;
+    }
+
+    @Override
+    public int getTextStart() {
+        checkText();
+        return textStarts[current];
+    }
+
+    @Override
+    public int getTextLength() {
+        checkText();
+        return textLengths[current];
+    }
+
+    private void checkText() {
+        if (eventType != CHARACTERS) {
+            throw new IllegalStateException("No text at event " + eventType);
+        }
+    }
+
+    /**
+     * @return where the parse is, with the number of the segment being pulled as the line number
+     */
+    @Override
+    public Location getLocation() {
+        int line = segments;
+        return new Location() {
+            @Override
+            public int getLineNumber() {
+                return line;
+            }
+
+            @Override
+            public int getColumnNumber() {
+                return -1;
+            }
+
+            @Override
+            public int getCharacterOffset() {
+                return -1;
+            }
+
+            @Override
+            public String getPublicId() {
+                return null;
+            }
+
+            @Override
+            public String getSystemId() {
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name");
+        }
+        return null;
+    }
+
+    @Override
+    public String getEncoding() {
+        return null;
+    }
+
+    /**
+     * There's no declaration to read a version from, but consumers like the JDK's StAX to DOM bridge count on one.
+     */
+    @Override
+    public String getVersion() {
+        return "1.0";
+    }
+
+    @Override
+    public boolean isStandalone() {
+        return false;
+    }
+
+    @Override
+    public boolean standaloneSet() {
+        return false;
+    }
+
+    @Override
+    public String getCharacterEncodingScheme() {
+        return null;
+    }
+
+    @Override
+    public String getPITarget() {
+        return null;
+    }
+
+    @Override
+    public String getPIData() {
+        return null;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        int event = add(START_ELEMENT, qName);
+        // the reader reuses its attributes
+        this.attributes[event] = attributes.getLength() == 0 ? NO_ATTRIBUTES : new AttributesImpl(attributes);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        add(END_ELEMENT, qName);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (length == 0) {
+            return;
+        }
+        if (textSize + length > text.length) {
+            char[] grown = new char[Math.max(textSize + length, text.length << 1)];
+            System.arraycopy(text, 0, grown, 0, textSize);
+            text = grown;
+        }
+        System.arraycopy(ch, start, text, textSize, length);
+        int event = add(CHARACTERS, null);
+        textStarts[event] = textSize;
+        textLengths[event] = length;
+        textSize += length;
+    }
+
+    private int add(int type, String name) {
+        if (size == types.length) {
+            int capacity = size << 1;
+            int[] grownTypes = new int[capacity];
+            String[] grownNames = new String[capacity];
+            Attributes[] grownAttributes = new Attributes[capacity];
+            int[] grownStarts = new int[capacity];
+            int[] grownLengths = new int[capacity];
+            System.arraycopy(types, 0, grownTypes, 0, size);
+            System.arraycopy(names, 0, grownNames, 0, size);
+            System.arraycopy(attributes, 0, grownAttributes, 0, size);
+            System.arraycopy(textStarts, 0, grownStarts, 0, size);
+            System.arraycopy(textLengths, 0, grownLengths, 0, size);
+            types = grownTypes;
+            names = grownNames;
+            attributes = grownAttributes;
+            textStarts = grownStarts;
+            textLengths = grownLengths;
+        }
+        types[size] = type;
+        names[size] = name;
+        return size++;
+    }
+}
@@ -0,0 +1,58 @@
+package org.bongiorno.edi.reader;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The element names of each segment id, SEG01, SEG02 and so on, and of composite parts, C01, C02 and so on. They're
+ * made and interned once, so that emitting an element doesn't format or intern anything. Thread safe; shared through
+ * {@link EdiReaderConfig}.
+ */
+final class ElementNames {
+
+    /**
+     * Garbage input could otherwise grow the table without bound.
+     */
+    private static final int MAX_SEGMENT_IDS = 4096;
+
+    private static final int MIN_ELEMENTS = 16;
+
+    private static final String[] COMPOSITE = names("C", 100);
+
+    private final Map<String, String[]> names = new ConcurrentHashMap<>();
+
+    /**
+     * @return the names of a segment's elements, indexed by position (0, the segment id itself, is null), at least
+     * count long
+     */
+    String[] of(String segmentId, int count) {
+        String[] result = names.get(segmentId);
+        if (result != null && result.length >= count) {
+            return result;
+        }
+        if (result == null && names.size() >= MAX_SEGMENT_IDS) {
+            return names(segmentId, count);
+        }
+        return names.compute(segmentId, (id, known) -> known != null && known.length >= count ? known
+                : names(id, Math.max(count, known == null ? MIN_ELEMENTS : known.length << 1)));
+    }
+
+    /**
+     * @param position 1 based
+     */
+    static String composite(int position) {
+        return position < COMPOSITE.length ? COMPOSITE[position] : name("C", position);
+    }
+
+    private static String[] names(String prefix, int count) {
+        String[] result = new String[count];
+        for (int i = 1; i < count; ++i) {
+            result[i] = name(prefix, i);
+        }
+        return result;
+    }
+
+    private static String name(String prefix, int position) {
+        return String.format("%s%02d", prefix, position).intern();
+    }
+}
@@ -0,0 +1,131 @@
+package org.bongiorno.edi.reader;
+
+import org.bongiorno.edi.reader.tokenizer.EDITokenizer;
+import org.bongiorno.edi.reader.tokenizer.SegmentCursor;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Pulls segments through an EdiReader only as fast as its consumer takes elements, so a slow consumer holds up the
+ * parse instead of events piling up. The reader's events for the wanted elements are built into a DOM element each;
+ * everything else is dropped as it goes by, so only the element currently being built is held in memory.
+ */
+class LoopSpliterator extends DefaultHandler implements Spliterator<Element> {
+
+    private final EdiReader reader;
+
+    private final SegmentCursor cursor;
+
+    private final Set<String> names;
+
+    private final DocumentBuilder builder;
+
+    private final Deque<Element> completed = new ArrayDeque<>();
+
+    private Node current;
+
+    private boolean ended;
+
+    LoopSpliterator(EdiReader reader, EDITokenizer tokenizer, Set<String> names) throws SAXException {
+        this.reader = reader;
+        this.cursor = tokenizer.cursor();
+        this.names = names;
+        try {
+            this.builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new SAXException(e);
+        }
+        reader.setContentHandler(this);
+        reader.start();
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Element> action) {
+        try {
+            while (completed.isEmpty() && !ended) {
+                if (cursor.advance()) {
+                    reader.handle(cursor);
+                } else {
+                    ended = true;
+                    reader.end();
+                }
+            }
+        } catch (IOException | SAXException e) {
+            throw new RuntimeException(e);
+        }
+        if (completed.isEmpty()) {
+            return false;
+        }
+        action.accept(completed.poll());
+        return true;
+    }
+
+    @Override
+    public Spliterator<Element> trySplit() {
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        Element element;
+        if (current != null) {
+            element = current.getOwnerDocument().createElement(qName);
+            current.appendChild(element);
+        } else if (names.contains(qName)) {
+            Document document = builder.newDocument();
+            element = document.createElement(qName);
+            document.appendChild(element);
+        } else {
+            return;
+        }
+        for (int i = 0; i < attributes.getLength(); ++i) {
+            element.setAttribute(attributes.getQName(i), attributes.getValue(i));
+        }
+        current = element;
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        if (current == null) {
+            return;
+        }
+        Node parent = current.getParentNode();
+        if (parent instanceof Document) {
+            completed.add((Element) current);
+            current = null;
+        } else {
+            current = parent;
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (current != null) {
+            current.appendChild(current.getOwnerDocument().createTextNode(new String(ch, start, length)));
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package org.bongiorno.edi.reader;
+
+import org.bongiorno.edi.reader.tokenizer.ChunkedFileScanner;
+import org.bongiorno.edi.reader.tokenizer.Delimiters;
+import org.bongiorno.edi.reader.tokenizer.MappedFileScanner;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+
+/**
+ * Parses the transaction sets of a file concurrently.
+ * <p>
+ * A first pass over the file, tokenized in chunks on the pool, only splits out segment ids, cutting it into runs of
+ * whole ST..SE transaction sets and runs of everything else (the ISA/GS envelope, or anything malformed). Every
+ * transaction set starts from the root loop and SE pops back to it, so transaction runs are parsed on the pool by their own EdiReader; the rest is parsed
+ * in sequence by the calling reader, exactly as a sequential parse would. Each run records its events and the
+ * recordings are replayed into the content handler in document order. At most a few runs per thread are in flight,
+ * which bounds memory on big files. A single huge transaction set, like a full file 834 enrollment, is parsed on the
+ * calling thread instead, so only its tokenizing runs in parallel.
+ */
+class ParallelParser {
+
+    /**
+     * transaction sets are handed out in runs of about this many bytes, so small ones aren't one task each
+     */
+    private static final long BATCH_SIZE = 256 * 1024;
+
+    /**
+     * a transaction set this big isn't recorded; it is parsed on this thread, tokenized in chunks on the pool
+     */
+    private static final long LARGE_TRANSACTION = 4L * ChunkedFileScanner.DEFAULT_CHUNK_SIZE;
+
+    /**
+     * segments that end a transaction set which never saw its SE
+     */
+    private static final Set<String> ENVELOPE = new HashSet<>(Arrays.asList("ISA", "GS", "ST", "GE", "IEA"));
+
+    private final EdiReader reader;
+
+    private final ForkJoinPool pool;
+
+    private final Path file;
+
+    private final Charset charset;
+
+    private final int maxInFlight;
+
+    private final Deque<Supplier<SaxEventBuffer>> inFlight = new ArrayDeque<>();
+
+    private FileChannel channel;
+
+    private Delimiters delimiters;
+
+    private ContentHandler target;
+
+    private long envelopeStart = -1;
+
+    private long envelopeEnd;
+
+    private long batchStart = -1;
+
+    private long batchEnd;
+
+    private long transactionStart = -1;
+
+    ParallelParser(EdiReader reader, ForkJoinPool pool, Path file, Charset charset) {
+        this.reader = reader;
+        this.pool = pool;
+        this.file = file;
+        this.charset = charset;
+        this.maxInFlight = pool.getParallelism() * 4;
+    }
+
+    void parse() throws IOException, SAXException {
+        target = reader.getContentHandler();
+        try (ChunkedFileScanner scanner = new ChunkedFileScanner(file, charset, pool);
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            this.channel = channel;
+            this.delimiters = scanner.getDelimiters();
+            // the runs are split into elements by whatever parses them
+            scanner.setSkip(id -> true);
+
+            try {
+                reader.start();
+                long end = 0;
+                while (scanner.advance()) {
+                    String segId = scanner.segmentId();
+                    long start = scanner.segmentOffset();
+                    long previousEnd = end;
+                    end = start + scanner.segmentEnd() - scanner.segmentStart();
+
+                    if (transactionStart >= 0) {
+                        if (segId.equals("SE")) {
+                            addTransaction(end);
+                            continue;
+                        }
+                        if (!ENVELOPE.contains(segId)) {
+                            continue;
+                        }
+                        // no SE, so it can't be parsed on its own
+                        flushBatch();
+                        envelopeStart = transactionStart;
+                        envelopeEnd = previousEnd;
+                        transactionStart = -1;
+                    }
+                    if (segId.equals("ST")) {
+                        flushEnvelope();
+                        if (reader.atRootLoop()) {
+                            transactionStart = start;
+                            continue;
+                        }
+                    }
+                    if (envelopeStart < 0) {
+                        flushBatch();
+                        envelopeStart = start;
+                    }
+                    envelopeEnd = end;
+                }
+                if (transactionStart >= 0) {
+                    flushBatch();
+                    envelopeStart = transactionStart;
+                    envelopeEnd = end;
+                }
+                flushBatch();
+                flushEnvelope();
+                drain();
+                reader.end();
+            } finally {
+                // after a failure the remaining runs aren't wanted, but they must be done with the channel before it closes
+                for (Supplier<SaxEventBuffer> events : inFlight) {
+                    try {
+                        events.get();
+                    } catch (RuntimeException ignored) {
+                    }
+                }
+            }
+        }
+    }
+
+    private void addTransaction(long end) throws IOException, SAXException {
+        if (end - transactionStart >= LARGE_TRANSACTION) {
+            flushBatch();
+            drain();
+            try (ChunkedFileScanner scanner = new ChunkedFileScanner(channel, charset, delimiters, transactionStart, end, pool)) {
+                reader.parseSegments(scanner);
+            }
+            transactionStart = -1;
+            return;
+        }
+        if (batchStart < 0) {
+            batchStart = transactionStart;
+        }
+        batchEnd = end;
+        transactionStart = -1;
+        if (batchEnd - batchStart >= BATCH_SIZE) {
+            flushBatch();
+        }
+    }
+
+    private void flushBatch() throws SAXException {
+        if (batchStart < 0) {
+            return;
+        }
+        long start = batchStart;
+        long end = batchEnd;
+        batchStart = -1;
+        ForkJoinTask<SaxEventBuffer> task = pool.submit(() -> {
+            EdiReader worker = reader.newWorker();
+            SaxEventBuffer events = new SaxEventBuffer();
+            worker.setContentHandler(events);
+            try (MappedFileScanner scanner = new MappedFileScanner(channel, charset, delimiters, start, end)) {
+                worker.parseSegments(scanner);
+            }
+            return events;
+        });
+        submit(task::join);
+    }
+
+    /**
+     * Envelope segments update the calling reader's loop and element stacks, so they are parsed right away, on this
+     * thread, and only their events wait their turn.
+     */
+    private void flushEnvelope() throws IOException, SAXException {
+        if (envelopeStart < 0) {
+            return;
+        }
+        SaxEventBuffer events = new SaxEventBuffer();
+        reader.setContentHandler(events);
+        try (MappedFileScanner scanner = new MappedFileScanner(channel, charset, delimiters, envelopeStart, envelopeEnd)) {
+            reader.parseSegments(scanner);
+        } finally {
+            reader.setContentHandler(target);
+        }
+        envelopeStart = -1;
+        submit(() -> events);
+    }
+
+    private void drain() throws SAXException {
+        while (!inFlight.isEmpty()) {
+            inFlight.poll().get().replay(target);
+        }
+    }
+
+    private void submit(Supplier<SaxEventBuffer> events) throws SAXException {
+        inFlight.add(events);
+        while (inFlight.size() > maxInFlight) {
+            inFlight.poll().get().replay(target);
+        }
+    }
+}
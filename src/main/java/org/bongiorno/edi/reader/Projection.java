@@ -0,0 +1,141 @@
+package org.bongiorno.edi.reader;
+
+import org.bongiorno.edi.reader.loops.TransitionTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What an {@link EdiReader} should report, when not everything is wanted. Paths are made of the element names the
+ * reader emits, separated by '/', and match wherever they end in the loop tree, like // in XPath:
+ * <ul>
+ * <li>"Loop2300" or "Loop2000B/Loop2300": every such loop, with all it contains</li>
+ * <li>"CLM": every CLM segment, wherever it is</li>
+ * <li>"Loop2400/SV2": the SV2 segments directly in a 2400 loop</li>
+ * </ul>
+ * Loops and transaction sets only show up around something projected; the ISA and GS envelope always does, without
+ * its data elements unless ISA or GS is projected. Immutable, so readers can share one.
+ */
+public final class Projection {
+
+    private static final String LOOP = "Loop";
+
+    private final Set<String> paths;
+
+    /**
+     * loop paths, each as its element names
+     */
+    private final List<String[]> loops = new ArrayList<>();
+
+    /**
+     * segment paths, each as the element names of the loops leading to the segment, followed by its id
+     */
+    private final List<String[]> segments = new ArrayList<>();
+
+    /**
+     * what is projected in each loop state, worked out the first time a reader enters it
+     */
+    private final Map<TransitionTable.State, Scope> scopes = new ConcurrentHashMap<>();
+
+    private Projection(Collection<String> paths) {
+        this.paths = Collections.unmodifiableSet(new LinkedHashSet<>(paths));
+        for (String path : this.paths) {
+            String[] names = path.split("/");
+            for (int i = 0; i < names.length; ++i) {
+                names[i] = names[i].trim().intern();
+                if (names[i].isEmpty() || (i < names.length - 1 && !names[i].startsWith(LOOP))) {
+                    throw new IllegalArgumentException("Not a path of loops ending in a loop or segment: " + path);
+                }
+            }
+            (names[names.length - 1].startsWith(LOOP) ? loops : segments).add(names);
+        }
+    }
+
+    public static Projection of(String... paths) {
+        return of(Arrays.asList(paths));
+    }
+
+    public static Projection of(Collection<String> paths) {
+        return new Projection(paths);
+    }
+
+    public Set<String> getPaths() {
+        return paths;
+    }
+
+    Scope scope(TransitionTable.State state) {
+        return scopes.computeIfAbsent(state, s -> new Scope(includesLoop(s), segmentsIn(s)));
+    }
+
+    /**
+     * @return true if everything in the state's loop is projected
+     */
+    private boolean includesLoop(TransitionTable.State state) {
+        for (TransitionTable.State s = state; s.getParent() != null; s = s.getParent()) {
+            for (String[] loop : loops) {
+                if (endsWith(s, loop, loop.length)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the ids of the segments projected directly in the state's loop, the root loop standing for the envelope
+     */
+    private Set<String> segmentsIn(TransitionTable.State state) {
+        Set<String> ids = new HashSet<>();
+        for (String[] segment : segments) {
+            if (endsWith(state, segment, segment.length - 1)) {
+                ids.add(segment[segment.length - 1]);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return true if the loops enclosing the state, itself included, end with the first length names
+     */
+    private static boolean endsWith(TransitionTable.State state, String[] names, int length) {
+        TransitionTable.State s = state;
+        for (int i = length - 1; i >= 0; --i, s = s.getParent()) {
+            if (s.getParent() == null || !s.getElementName().equals(names[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return String.join(", ", paths);
+    }
+
+    /**
+     * What is projected in one loop state.
+     */
+    static final class Scope {
+
+        private final boolean all;
+
+        private final Set<String> segmentIds;
+
+        private Scope(boolean all, Set<String> segmentIds) {
+            this.all = all;
+            this.segmentIds = segmentIds;
+        }
+
+        boolean includes(String segmentId) {
+            return all || segmentIds.contains(segmentId);
+        }
+    }
+}
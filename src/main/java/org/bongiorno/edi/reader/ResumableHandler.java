@@ -0,0 +1,25 @@
+package org.bongiorno.edi.reader;
+
+import org.xml.sax.SAXException;
+
+/**
+ * A content handler that can pick up from a {@link Checkpoint} as if the parse had never stopped. Handlers that aren't
+ * resumable get startDocument and the start of every element open at the checkpoint instead, all over again.
+ */
+public interface ResumableHandler {
+
+    /**
+     * Called between two segments when a checkpoint is taken. Whatever the handler has buffered should be made durable
+     * before it returns.
+     *
+     * @return what the handler needs to carry on from here, or null
+     */
+    byte[] checkpoint() throws SAXException;
+
+    /**
+     * Called instead of startDocument when a parse resumes from a checkpoint.
+     *
+     * @param state what {@link #checkpoint()} returned
+     */
+    void resume(byte[] state) throws SAXException;
+}
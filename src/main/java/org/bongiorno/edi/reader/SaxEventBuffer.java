@@ -0,0 +1,87 @@
+package org.bongiorno.edi.reader;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.util.Arrays;
+
+/**
+ * Records the element and character events EdiReader produces so they can be replayed later, in order, into the real
+ * ContentHandler. Names are kept as they come (EdiReader interns them); attributes and characters are copied.
+ */
+class SaxEventBuffer extends DefaultHandler {
+
+    private static final byte START = 0;
+
+    private static final byte END = 1;
+
+    private static final byte CHARACTERS = 2;
+
+    private static final Attributes NO_ATTRIBUTES = new AttributesImpl();
+
+    private byte[] events = new byte[256];
+
+    /**
+     * START takes two slots (name, attributes), END and CHARACTERS one
+     */
+    private Object[] values = new Object[512];
+
+    private int eventCount;
+
+    private int valueCount;
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        add(START);
+        addValue(qName);
+        addValue(attributes.getLength() == 0 ? NO_ATTRIBUTES : new AttributesImpl(attributes));
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        add(END);
+        addValue(qName);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        add(CHARACTERS);
+        addValue(Arrays.copyOfRange(ch, start, start + length));
+    }
+
+    void replay(ContentHandler handler) throws SAXException {
+        int v = 0;
+        for (int i = 0; i < eventCount; ++i) {
+            switch (events[i]) {
+                case START:
+                    String name = (String) values[v++];
+                    handler.startElement("", name, name, (Attributes) values[v++]);
+                    break;
+                case END:
+                    name = (String) values[v++];
+                    handler.endElement("", name, name);
+                    break;
+                default:
+                    char[] chars = (char[]) values[v++];
+                    handler.characters(chars, 0, chars.length);
+            }
+        }
+    }
+
+    private void add(byte event) {
+        if (eventCount == events.length) {
+            events = Arrays.copyOf(events, eventCount << 1);
+        }
+        events[eventCount++] = event;
+    }
+
+    private void addValue(Object value) {
+        if (valueCount == values.length) {
+            values = Arrays.copyOf(values, valueCount << 1);
+        }
+        values[valueCount++] = value;
+    }
+}
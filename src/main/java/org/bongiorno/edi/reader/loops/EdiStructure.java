@@ -5,6 +5,7 @@ import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.bind.annotation.*;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -26,6 +27,12 @@ public class EdiStructure {
     @XmlElement(name = "AttributeDefinition")
     private Set<AttribDef> attributeDefinitions = new HashSet<>();
 
+    @XmlTransient
+    private TransitionTable transitionTable;
+
+    @XmlTransient
+    private Map<String, Set<Integer>> attributePositions;
+
     public String getLoopsEnd() {
         return loopsEnd;
     }
@@ -37,13 +44,30 @@ public class EdiStructure {
                 .findAny().orElseThrow(() -> new RuntimeException("One top-level loop should have id='ROOT'"));
     }
 
+    /**
+     * @return the loops compiled for parsing
+     */
+    public TransitionTable getTransitionTable() {
+        return transitionTable;
+    }
+
     public Set<AttribDef> getAttributeDefinitions() {
         return attributeDefinitions;
     }
 
+    /**
+     * @return the attribute definitions keyed by segment id
+     */
+    public Map<String, Set<Integer>> getAttributePositions() {
+        return attributePositions;
+    }
+
+    /**
+     * Loads, resolves and freezes a loop definition. The result is immutable and safe to share between threads; see
+     * {@link StructureRegistry} for loading each definition only once.
+     */
     public static EdiStructure fromStream(InputStream input) throws JAXBException {
-        JAXBContext context = JAXBContext.newInstance(EdiStructure.class);
-        Unmarshaller unmarshaller = context.createUnmarshaller();
+        Unmarshaller unmarshaller = Context.INSTANCE.createUnmarshaller();
         EdiStructure ediStructure = (EdiStructure) unmarshaller.unmarshal(input);
 
         if(ediStructure.loops == null || ediStructure.loops.isEmpty()){
@@ -55,13 +79,50 @@ public class EdiStructure {
                 }
         ));
         ediStructure.loops.stream().forEach(l -> l.resolveLoopRefs(loopMap));
+        ediStructure.loops = Collections.unmodifiableList(ediStructure.loops);
+        ediStructure.transitionTable = TransitionTable.compile(ediStructure.getRootLoop());
+
+        ediStructure.attributeDefinitions.forEach(AttribDef::freeze);
+        ediStructure.attributeDefinitions = Collections.unmodifiableSet(ediStructure.attributeDefinitions);
+        ediStructure.attributePositions = Collections.unmodifiableMap(ediStructure.attributeDefinitions.stream()
+                .collect(Collectors.toMap(AttribDef::getName, AttribDef::getPosition)));
 
         return ediStructure;
     }
 
+    /**
+     * JAXBContexts are thread safe and expensive to build, so there's one for the lifetime of the class.
+     */
+    private static class Context {
+
+        private static final JAXBContext INSTANCE;
 
+        static {
+            try {
+                INSTANCE = JAXBContext.newInstance(EdiStructure.class);
+            } catch (JAXBException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @XmlAccessorType(XmlAccessType.FIELD)
     public static class AttribDef {
-        public String name;
-        public Set<Integer> position;
+
+        private String name;
+
+        private Set<Integer> position;
+
+        public String getName() {
+            return name;
+        }
+
+        public Set<Integer> getPosition() {
+            return position;
+        }
+
+        void freeze() {
+            position = position == null ? Collections.emptySet() : Collections.unmodifiableSet(position);
+        }
     }
 }
@@ -0,0 +1,21 @@
+package org.bongiorno.edi.reader.loops;
+
+import org.bongiorno.edi.reader.tokenizer.SegmentCursor;
+
+/**
+ * A {@link TransitionTable}'s decisions written out as code by {@link TransitionTableGenerator}.
+ */
+public interface GeneratedTransitions {
+
+    /**
+     * @return the {@link TransitionTable#getSignature() signature} of the table the code was generated from
+     */
+    String getSignature();
+
+    /**
+     * @param state the {@link TransitionTable.State#getIndex() index} of the current state
+     * @return the {@link TransitionTable.Transition#getIndex() index} of the transition the segment takes, or -1 if
+     * it stays in the current loop
+     */
+    int select(int state, SegmentCursor segment);
+}
@@ -1,10 +1,9 @@
 
 package org.bongiorno.edi.reader.loops;
 
-import org.bongiorno.edi.reader.tokenizer.Element;
-
 import javax.xml.bind.annotation.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -59,17 +58,25 @@ public class Loop {
                 children.add(referent);
             });
         }
+        // frozen so that a resolved structure can be shared between readers
+        children = Collections.unmodifiableList(children);
+        loops = loops == null ? null : Collections.unmodifiableList(loops);
+        loopRefs = loopRefs == null ? null : Collections.unmodifiableList(loopRefs);
+        continueSegments = continueSegments == null ? null : Collections.unmodifiableList(continueSegments);
+        if (startSegment != null) {
+            startSegment.freeze();
+        }
     }
 
-    public Loop getTransition(List<Element> segment) {
-        Loop result = null;
-        String segId = segment.get(0).toString();
-        if (continueSegments == null || !continueSegments.contains(segId)) {
-            result = children.stream()
-                    .filter(c -> c.startSegment.matches(segment))
-                    .findFirst()
-                    .orElse(null);
-        }
-        return result;
+    List<Loop> getChildren() {
+        return children;
+    }
+
+    StartSegment getStartSegment() {
+        return startSegment;
+    }
+
+    List<String> getContinueSegments() {
+        return continueSegments;
     }
 }
@@ -2,6 +2,7 @@
 package org.bongiorno.edi.reader.loops;
 
 import javax.xml.bind.annotation.*;
+import java.util.Collections;
 import java.util.List;
 
 @XmlAccessorType(XmlAccessType.FIELD)
@@ -21,4 +22,8 @@ public class Qualifier {
     public List<String> getValues() {
         return values;
     }
+
+    void freeze() {
+        values = values == null ? Collections.emptyList() : Collections.unmodifiableList(values);
+    }
 }
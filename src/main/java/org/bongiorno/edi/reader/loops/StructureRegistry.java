@@ -0,0 +1,73 @@
+package org.bongiorno.edi.reader.loops;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loads each loop definition once and shares the resolved {@link EdiStructure} between every reader, unmarshaller and
+ * the command line. Structures are immutable once loaded, so handing out the same instance is safe.
+ * <p>
+ * When {@link TransitionTableGenerator} has generated transitions for a definition at build time, and they were
+ * generated from the same loops, the structure's transition table uses them.
+ */
+public final class StructureRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(StructureRegistry.class);
+
+    private static final String LOOPS = "/META-INF/loops/%s.xml";
+
+    private static final Map<String, EdiStructure> structures = new ConcurrentHashMap<>();
+
+    private StructureRegistry() {
+    }
+
+    /**
+     * @param name the loop file name without the extension, edi837 for example
+     * @return the structure defined in /META-INF/loops/name.xml
+     * @throws IllegalArgumentException if there is no such loop definition
+     */
+    public static EdiStructure get(String name) {
+        String path = String.format(LOOPS, name);
+        URL resource = StructureRegistry.class.getResource(path);
+        if (resource == null) {
+            throw new IllegalArgumentException("Loop resource definition not found. Please put a loop definition in: " + path);
+        }
+        return get(resource);
+    }
+
+    public static EdiStructure get(URL resource) {
+        // URL.equals() may resolve host names, so key on the text of the URL
+        return structures.computeIfAbsent(resource.toExternalForm(), key -> {
+            EdiStructure structure;
+            try (InputStream in = resource.openStream()) {
+                structure = EdiStructure.fromStream(in);
+            } catch (IOException | JAXBException e) {
+                throw new RuntimeException(e);
+            }
+            String[] path = resource.getPath().split("/");
+            GeneratedTransitions generated = generated(TransitionTableGenerator.structureName(path[path.length - 1]));
+            if (generated != null && !structure.getTransitionTable().use(generated)) {
+                log.warn("Ignoring {}: it was generated from a different version of {}", generated.getClass().getName(), key);
+            }
+            return structure;
+        });
+    }
+
+    private static GeneratedTransitions generated(String name) {
+        String className = TransitionTableGenerator.PACKAGE + "." + TransitionTableGenerator.className(name);
+        try {
+            return (GeneratedTransitions) Class.forName(className).newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
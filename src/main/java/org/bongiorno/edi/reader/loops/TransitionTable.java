@@ -0,0 +1,426 @@
+package org.bongiorno.edi.reader.loops;
+
+import org.bongiorno.edi.reader.tokenizer.SegmentCursor;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An EdiStructure compiled for parsing. Which loop a segment opens depends on the whole stack of open loops, so every
+ * path through the loop tree becomes a {@link State} (a loop pulled in by LoopRef from two places is two states), and
+ * each state knows, per segment id, the loops that segment could start in priority order: the current loop's children
+ * first, then its parent's, down to the root. Picking the next loop is then a hash lookup on the segment id, and when
+ * the candidates are told apart by one qualifier, a second hash lookup on that element, instead of a walk down the
+ * loop stack. Immutable once compiled, so one table serves every reader of a structure.
+ * <p>
+ * States and transitions are numbered in a fixed order so that {@link TransitionTableGenerator} can write the same
+ * decisions out as switch statements; see {@link #use(GeneratedTransitions)}.
+ */
+public final class TransitionTable {
+
+    private final State root;
+
+    private final List<State> states;
+
+    private final List<Transition> transitions = new ArrayList<>();
+
+    private GeneratedTransitions generated;
+
+    private Set<String> loopElementNames;
+
+    private TransitionTable(State root, List<State> states) {
+        this.root = root;
+        this.states = Collections.unmodifiableList(states);
+    }
+
+    public static TransitionTable compile(Loop rootLoop) {
+        List<State> states = new ArrayList<>();
+        TransitionTable table = new TransitionTable(new State(rootLoop, null, 0), states);
+        unfold(table.root, states);
+        for (State state : states) {
+            state.table = table;
+        }
+        for (State state : states) {
+            state.compile();
+        }
+        Set<String> names = new HashSet<>();
+        for (State state : states.subList(1, states.size())) {
+            names.add(state.elementName);
+        }
+        table.loopElementNames = Collections.unmodifiableSet(names);
+        return table;
+    }
+
+    private static void unfold(State state, List<State> states) {
+        states.add(state);
+        List<Loop> children = state.loop.getChildren();
+        for (int i = 0; i < children.size(); ++i) {
+            Loop child = children.get(i);
+            for (State s = state; s != null; s = s.parent) {
+                if (s.loop == child) {
+                    throw new RuntimeException("Loop " + child.getName() + " contains itself through a LoopRef");
+                }
+            }
+            State childState = new State(child, state, states.size());
+            state.children[i] = childState;
+            unfold(childState, states);
+        }
+    }
+
+    public State getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the XML element names of every loop below the root, e.g. Loop2300
+     */
+    public Set<String> getLoopElementNames() {
+        return loopElementNames;
+    }
+
+    /**
+     * @return every state, indexed by {@link State#getIndex()}
+     */
+    List<State> getStates() {
+        return states;
+    }
+
+    /**
+     * @return the state with that {@link State#getIndex() index}, which stays the same as long as the signature does
+     */
+    public State getState(int index) {
+        return states.get(index);
+    }
+
+    /**
+     * A digest of the states and of every decision they make. Generated code carries the signature of the table it was
+     * generated from, so code generated from an older version of a loop file is never used.
+     */
+    public String getSignature() {
+        StringBuilder description = new StringBuilder();
+        for (State state : states) {
+            description.append(state.index).append(' ').append(state.elementName).append(' ')
+                    .append(state.parent == null ? -1 : state.parent.index).append('\n');
+            for (Map.Entry<String, Choice> choice : state.choices.entrySet()) {
+                description.append(choice.getKey()).append(':');
+                for (Candidate candidate : choice.getValue().candidates) {
+                    description.append(' ').append(candidate.transition.index).append('=')
+                            .append(candidate.transition.pops).append('>').append(candidate.transition.target.index);
+                    for (int i = 0; i < candidate.positions.length; ++i) {
+                        description.append(' ').append(candidate.positions[i]).append(String.join("|", candidate.values[i]));
+                    }
+                }
+                description.append('\n');
+            }
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(description.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 16; ++i) {
+                hex.append(Character.forDigit((digest[i] >> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Hands transition selection over to generated code. Only done before the table is shared.
+     *
+     * @return false, leaving the table as it was, if the code was generated from a different table
+     */
+    boolean use(GeneratedTransitions generated) {
+        if (!getSignature().equals(generated.getSignature())) {
+            return false;
+        }
+        this.generated = generated;
+        return true;
+    }
+
+    boolean isGenerated() {
+        return generated != null;
+    }
+
+    /**
+     * One open loop, and through its parents the loops enclosing it.
+     */
+    public static final class State {
+
+        private final Loop loop;
+
+        private final State parent;
+
+        private final int depth;
+
+        private final String elementName;
+
+        private final State[] children;
+
+        private final int index;
+
+        private TransitionTable table;
+
+        private Map<String, Choice> choices;
+
+        private State(Loop loop, State parent, int index) {
+            this.loop = loop;
+            this.parent = parent;
+            this.index = index;
+            this.depth = parent == null ? 0 : parent.depth + 1;
+            this.elementName = loop.getName().intern();
+            List<Loop> loopChildren = loop.getChildren();
+            this.children = new State[loopChildren == null ? 0 : loopChildren.size()];
+        }
+
+        public Loop getLoop() {
+            return loop;
+        }
+
+        /**
+         * @return the enclosing loop's state, null for the root
+         */
+        public State getParent() {
+            return parent;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * @return the position of this state in the table, the number generated code switches on
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return the XML element name of the loop, e.g. Loop2300
+         */
+        public String getElementName() {
+            return elementName;
+        }
+
+        /**
+         * @return where the segment leads, or null if it stays in the current loop
+         */
+        public Transition transition(SegmentCursor segment) {
+            GeneratedTransitions generated = table.generated;
+            if (generated != null) {
+                int selected = generated.select(index, segment);
+                return selected < 0 ? null : table.transitions.get(selected);
+            }
+            Choice choice = choices.get(segment.segmentId());
+            return choice == null ? null : choice.select(segment);
+        }
+
+        /**
+         * @return true if a segment with this id could start a loop from here, so its qualifiers may need reading
+         */
+        public boolean opensLoop(String segmentId) {
+            return choices.containsKey(segmentId);
+        }
+
+        private void compile() {
+            Map<String, List<Candidate>> candidates = new LinkedHashMap<>();
+            for (State level = this; level != null; level = level.parent) {
+                List<String> continueSegments = level.loop.getContinueSegments();
+                List<Loop> levelChildren = level.loop.getChildren();
+                for (int i = 0; i < levelChildren.size(); ++i) {
+                    StartSegment start = levelChildren.get(i).getStartSegment();
+                    if (continueSegments != null && continueSegments.contains(start.id)) {
+                        continue;
+                    }
+                    Transition transition = new Transition(depth - level.depth, level.children[i], table.transitions.size());
+                    table.transitions.add(transition);
+                    candidates.computeIfAbsent(start.id, id -> new ArrayList<>()).add(new Candidate(transition, start.qualifiers));
+                }
+            }
+            Map<String, Choice> compiled = new LinkedHashMap<>();
+            for (Map.Entry<String, List<Candidate>> entry : candidates.entrySet()) {
+                compiled.put(entry.getKey().intern(), Choice.of(entry.getValue()));
+            }
+            this.choices = Collections.unmodifiableMap(compiled);
+        }
+
+        /**
+         * @return the candidate transitions per segment id, in the order they're tried
+         */
+        Map<String, Choice> getChoices() {
+            return choices;
+        }
+    }
+
+    /**
+     * Close {@link #getPops()} loops, then open the target's loop.
+     */
+    public static final class Transition {
+
+        private final int pops;
+
+        private final State target;
+
+        private final int index;
+
+        private Transition(int pops, State target, int index) {
+            this.pops = pops;
+            this.target = target;
+            this.index = index;
+        }
+
+        public int getPops() {
+            return pops;
+        }
+
+        public State getTarget() {
+            return target;
+        }
+
+        /**
+         * @return the number generated code returns for this transition
+         */
+        public int getIndex() {
+            return index;
+        }
+    }
+
+    static final class Candidate {
+
+        final Transition transition;
+
+        final int[] positions;
+
+        final String[][] values;
+
+        private Candidate(Transition transition, List<Qualifier> qualifiers) {
+            this.transition = transition;
+            int count = qualifiers == null ? 0 : qualifiers.size();
+            this.positions = new int[count];
+            this.values = new String[count][];
+            for (int i = 0; i < count; ++i) {
+                Qualifier qualifier = qualifiers.get(i);
+                positions[i] = qualifier.getPosition();
+                values[i] = qualifier.getValues() == null ? new String[0] : qualifier.getValues().toArray(new String[0]);
+            }
+        }
+
+        private boolean matches(SegmentCursor segment) {
+            for (int i = 0; i < positions.length; ++i) {
+                int position = positions[i];
+                if (position >= segment.elementCount() || !contains(values[i], segment, position)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean contains(String[] values, SegmentCursor segment, int position) {
+            for (String value : values) {
+                if (segment.elementEquals(position, value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The loops one segment id could start, tried in order.
+     */
+    static class Choice {
+
+        final Candidate[] candidates;
+
+        private Choice(Candidate[] candidates) {
+            this.candidates = candidates;
+        }
+
+        static Choice of(List<Candidate> candidates) {
+            Candidate[] array = candidates.toArray(new Candidate[0]);
+            for (Candidate candidate : array) {
+                if (candidate.positions.length != 1 || candidate.positions[0] != array[0].positions[0]) {
+                    return new Choice(array);
+                }
+            }
+            return new IndexedChoice(array);
+        }
+
+        Transition select(SegmentCursor segment) {
+            for (Candidate candidate : candidates) {
+                if (candidate.matches(segment)) {
+                    return candidate.transition;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Every candidate is picked by the value of the same element, so the value leads straight to the first one that
+     * accepts it.
+     */
+    private static final class IndexedChoice extends Choice {
+
+        private final int position;
+
+        private final String[] keys;
+
+        private final Transition[] transitions;
+
+        private IndexedChoice(Candidate[] candidates) {
+            super(candidates);
+            this.position = candidates[0].positions[0];
+            int size = 0;
+            for (Candidate candidate : candidates) {
+                size += candidate.values[0].length;
+            }
+            int capacity = Integer.highestOneBit(Math.max(size, 1) * 4 - 1) << 1;
+            this.keys = new String[capacity];
+            this.transitions = new Transition[capacity];
+            for (Candidate candidate : candidates) {
+                for (String value : candidate.values[0]) {
+                    int slot = slot(value.hashCode());
+                    while (keys[slot] != null && !keys[slot].equals(value)) {
+                        slot = (slot + 1) & (keys.length - 1);
+                    }
+                    if (keys[slot] == null) {
+                        // the first candidate with a value wins, as it would trying them in order
+                        keys[slot] = value;
+                        transitions[slot] = candidate.transition;
+                    }
+                }
+            }
+        }
+
+        @Override
+        Transition select(SegmentCursor segment) {
+            if (position >= segment.elementCount()) {
+                return null;
+            }
+            CharSequence value = segment.element(position);
+            int hash = 0;
+            for (int i = 0, length = value.length(); i < length; ++i) {
+                hash = 31 * hash + value.charAt(i);
+            }
+            for (int slot = slot(hash); keys[slot] != null; slot = (slot + 1) & (keys.length - 1)) {
+                if (keys[slot].hashCode() == hash && segment.elementEquals(position, keys[slot])) {
+                    return transitions[slot];
+                }
+            }
+            return null;
+        }
+
+        private int slot(int hash) {
+            return (hash ^ (hash >>> 16)) & (keys.length - 1);
+        }
+    }
+}
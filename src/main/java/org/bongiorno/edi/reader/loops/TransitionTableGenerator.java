@@ -0,0 +1,239 @@
+package org.bongiorno.edi.reader.loops;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import javax.xml.bind.JAXBException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the transition tables of loop definitions out as Java, one class per definition, so that picking the next
+ * loop is a switch on the state, a switch on the segment id and then plain element comparisons the JIT can inline.
+ * Run at build time by the codegen profile:
+ * <pre>
+ * TransitionTableGenerator sourceDir classesDir loops...
+ * </pre>
+ * where loops are loop definition files or directories of them. The sources are written to sourceDir and compiled
+ * into classesDir, where {@link StructureRegistry} picks them up.
+ */
+public final class TransitionTableGenerator {
+
+    static final String PACKAGE = "org.bongiorno.edi.reader.loops.generated";
+
+    private TransitionTableGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException, JAXBException {
+        if (args.length < 3) {
+            System.err.println("usage: TransitionTableGenerator sourceDir classesDir loops...");
+            System.exit(1);
+        }
+        Path sources = Paths.get(args[0]);
+        Path classes = Paths.get(args[1]);
+
+        List<Path> loopFiles = new ArrayList<>();
+        for (int i = 2; i < args.length; ++i) {
+            Path loops = Paths.get(args[i]);
+            if (Files.isDirectory(loops)) {
+                try (DirectoryStream<Path> definitions = Files.newDirectoryStream(loops, "*.xml")) {
+                    definitions.forEach(loopFiles::add);
+                }
+            } else {
+                loopFiles.add(loops);
+            }
+        }
+
+        List<Path> generated = new ArrayList<>();
+        for (Path loopFile : loopFiles) {
+            String name = structureName(loopFile.getFileName().toString());
+            EdiStructure structure;
+            try (InputStream in = Files.newInputStream(loopFile)) {
+                structure = EdiStructure.fromStream(in);
+            }
+            generated.add(write(sources, name, structure.getTransitionTable()));
+        }
+        compile(generated, classes);
+    }
+
+    /**
+     * @return the loop definition's file name without the extension, edi837 for example
+     */
+    static String structureName(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot == -1 ? fileName : fileName.substring(0, dot);
+    }
+
+    /**
+     * @return the simple name of the class generated for a structure, Edi837Transitions for edi837
+     */
+    static String className(String structureName) {
+        StringBuilder name = new StringBuilder();
+        boolean upper = true;
+        for (char c : structureName.toCharArray()) {
+            if (Character.isJavaIdentifierPart(c)) {
+                name.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            } else {
+                upper = true;
+            }
+        }
+        return name.append("Transitions").toString();
+    }
+
+    static Path write(Path sources, String name, TransitionTable table) throws IOException {
+        Path source = sources.resolve(PACKAGE.replace('.', '/')).resolve(className(name) + ".java");
+        Files.createDirectories(source.getParent());
+        Files.write(source, generate(name, table).getBytes(StandardCharsets.UTF_8));
+        return source;
+    }
+
+    static String generate(String name, TransitionTable table) {
+        StringBuilder out = new StringBuilder();
+        out.append("package ").append(PACKAGE).append(";\n\n");
+        out.append("import org.bongiorno.edi.reader.loops.GeneratedTransitions;\n");
+        out.append("import org.bongiorno.edi.reader.tokenizer.SegmentCursor;\n\n");
+        out.append("/**\n * Generated by TransitionTableGenerator from ").append(name).append(". Do not edit.\n */\n");
+        out.append("public final class ").append(className(name)).append(" implements GeneratedTransitions {\n\n");
+
+        out.append("    @Override\n    public String getSignature() {\n");
+        out.append("        return ").append(literal(table.getSignature())).append(";\n    }\n\n");
+
+        List<TransitionTable.State> states = table.getStates();
+        out.append("    @Override\n    public int select(int state, SegmentCursor segment) {\n");
+        out.append("        switch (state) {\n");
+        for (TransitionTable.State state : states) {
+            if (!state.getChoices().isEmpty()) {
+                out.append("            case ").append(state.getIndex()).append(":\n");
+                out.append("                return state").append(state.getIndex()).append("(segment);\n");
+            }
+        }
+        out.append("            default:\n                return -1;\n        }\n    }\n");
+
+        for (TransitionTable.State state : states) {
+            if (!state.getChoices().isEmpty()) {
+                out.append('\n');
+                state(out, state);
+            }
+        }
+        return out.append("}\n").toString();
+    }
+
+    private static void state(StringBuilder out, TransitionTable.State state) {
+        out.append("    // ").append(path(state)).append('\n');
+        out.append("    private static int state").append(state.getIndex()).append("(SegmentCursor segment) {\n");
+        out.append("        int count = segment.elementCount();\n");
+        out.append("        switch (segment.segmentId()) {\n");
+        for (Map.Entry<String, TransitionTable.Choice> choice : state.getChoices().entrySet()) {
+            out.append("            case ").append(literal(choice.getKey())).append(":\n");
+            boolean unconditional = false;
+            for (TransitionTable.Candidate candidate : choice.getValue().candidates) {
+                String condition = condition(candidate);
+                if (condition == null) {
+                    // no value can satisfy one of the qualifiers
+                    continue;
+                }
+                int transition = candidate.transition.getIndex();
+                if (condition.isEmpty()) {
+                    out.append("                return ").append(transition).append(";\n");
+                    unconditional = true;
+                    // anything after this candidate can never be picked
+                    break;
+                }
+                out.append("                if (").append(condition).append(") {\n");
+                out.append("                    return ").append(transition).append(";\n");
+                out.append("                }\n");
+            }
+            if (!unconditional) {
+                out.append("                return -1;\n");
+            }
+        }
+        out.append("            default:\n                return -1;\n        }\n    }\n");
+    }
+
+    /**
+     * @return the test a candidate's qualifiers make, "" if it has none, or null if it can never match
+     */
+    private static String condition(TransitionTable.Candidate candidate) {
+        StringBuilder condition = new StringBuilder();
+        for (int i = 0; i < candidate.positions.length; ++i) {
+            String[] values = candidate.values[i];
+            if (values.length == 0) {
+                return null;
+            }
+            int position = candidate.positions[i];
+            if (condition.length() > 0) {
+                condition.append(" && ");
+            }
+            condition.append("count > ").append(position).append(" && ");
+            if (values.length > 1) {
+                condition.append('(');
+            }
+            for (int j = 0; j < values.length; ++j) {
+                if (j > 0) {
+                    condition.append(" || ");
+                }
+                condition.append("segment.elementEquals(").append(position).append(", ").append(literal(values[j])).append(')');
+            }
+            if (values.length > 1) {
+                condition.append(')');
+            }
+        }
+        return condition.toString();
+    }
+
+    private static String path(TransitionTable.State state) {
+        return state.getParent() == null ? state.getElementName() : path(state.getParent()) + "/" + state.getElementName();
+    }
+
+    private static String literal(String value) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                literal.append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7E) {
+                literal.append(String.format("\\u%04x", (int) c));
+            } else {
+                literal.append(c);
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    static void compile(List<Path> sources, Path classes) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("Compiling generated transitions needs a JDK");
+        }
+        Files.createDirectories(classes);
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+            fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(classes.toFile()));
+            // the generated code only needs this project's classes, and the generator is one of them
+            File project = new File(TransitionTableGenerator.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            fileManager.setLocation(StandardLocation.CLASS_PATH, Arrays.asList(classes.toFile(), project));
+            List<File> files = new ArrayList<>();
+            for (Path source : sources) {
+                files.add(source.toFile());
+            }
+            List<String> options = Arrays.asList("-source", "1.8", "-target", "1.8", "-nowarn");
+            if (!compiler.getTask(null, fileManager, null, options, null, fileManager.getJavaFileObjectsFromFiles(files)).call()) {
+                throw new IllegalStateException("Generated transitions didn't compile: " + sources);
+            }
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
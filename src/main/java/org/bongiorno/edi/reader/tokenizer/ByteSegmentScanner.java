@@ -0,0 +1,240 @@
+package org.bongiorno.edi.reader.tokenizer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Scans segments straight out of bytes, so no charset decoding happens unless a String is asked for.
+ * <p>
+ * This only works for charsets in which the ASCII delimiters are single bytes that can't show up inside another
+ * character: UTF-8 and the ASCII based single byte charsets (see {@link #isAsciiCompatible(Charset)}). Positions are
+ * byte positions and {@link #charAt(int)} widens one byte, which is exact for the ASCII segment ids and codes the
+ * parser looks at; {@link #substring(int, int)} decodes with the real charset.
+ */
+public abstract class ByteSegmentScanner extends SegmentScanner {
+
+    private static final byte[] ASCII = new byte[128];
+
+    static {
+        for (int i = 0; i < ASCII.length; ++i) {
+            ASCII[i] = (byte) i;
+        }
+    }
+
+    protected final Charset charset;
+
+    /**
+     * the current window of the input. Subclasses replace or refill it in {@link #fill()}
+     */
+    protected ByteBuffer buffer;
+
+    protected int position;
+
+    protected int limit;
+
+    /**
+     * absolute offset of buffer index 0 in the input
+     */
+    protected long bufferOffset;
+
+    /**
+     * a duplicate of buffer for bulk reads, so reading never disturbs buffer's own position
+     */
+    private ByteBuffer view;
+
+    private ByteBuffer viewSource;
+
+    private byte[] scratch = new byte[256];
+
+    private final boolean latin1;
+
+    protected ByteSegmentScanner(Charset charset) {
+        if (!isAsciiCompatible(charset)) {
+            throw new IllegalArgumentException(charset + " can't be scanned as bytes");
+        }
+        this.charset = charset;
+        this.latin1 = StandardCharsets.ISO_8859_1.equals(charset);
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return true if the ASCII characters encode to themselves and no byte of a multi-byte character is ASCII.
+     */
+    public static boolean isAsciiCompatible(Charset charset) {
+        if (StandardCharsets.UTF_8.equals(charset) || StandardCharsets.US_ASCII.equals(charset) || StandardCharsets.ISO_8859_1.equals(charset)) {
+            return true;
+        }
+        if (!charset.canEncode() || charset.newEncoder().maxBytesPerChar() != 1f) {
+            return false;
+        }
+        return Arrays.equals(ASCII, new String(ASCII, StandardCharsets.US_ASCII).getBytes(charset));
+    }
+
+    /**
+     * Makes more input available after limit, keeping the bytes from position on. Implementations may move the
+     * retained bytes, in which case they have to update position, limit and bufferOffset to match.
+     *
+     * @return false at end of input
+     */
+    protected abstract boolean fill() throws IOException;
+
+    /**
+     * Reads the delimiters from the ISA segment at the start of the input, skipping a UTF-8 byte order mark.
+     */
+    protected void readHeader() throws IOException {
+        while (limit - position <= Delimiters.HEADER_LENGTH + 2 && fill()) {
+            // read enough for the BOM and the ISA header
+        }
+        if (limit == position) {
+            throw new IOException("EOF before any data");
+        }
+        if (limit - position >= 3 && buffer.get(position) == (byte) 0xEF && buffer.get(position + 1) == (byte) 0xBB
+                && buffer.get(position + 2) == (byte) 0xBF) {
+            position += 3;
+        }
+        char[] header = new char[Math.min(limit - position, Delimiters.HEADER_LENGTH)];
+        for (int i = 0; i < header.length; ++i) {
+            header[i] = charAt(position + i);
+        }
+        this.delimiters = Delimiters.fromIsa(CharBuffer.wrap(header));
+    }
+
+    @Override
+    public boolean advance() throws IOException {
+        for (; ; ) {
+            while (position < limit && delimiters.isTerminator(buffer.get(position) & 0xFF)) {
+                ++position;
+            }
+            if (position == limit) {
+                if (!fill()) {
+                    return false;
+                }
+            } else if (scan(false) || (!fill() && scan(true))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Splits the segment starting at position in a single pass.
+     *
+     * @param atEof treat the end of the buffer as the end of the last, unterminated, segment
+     * @return false if the buffer ends before the segment does
+     */
+    protected boolean scan(boolean atEof) {
+        ByteBuffer buff = this.buffer;
+        int elementDelimiter = delimiters.getElementDelimiter();
+        int start = position;
+        int elementStart = start;
+
+        beginSegment(start);
+        for (int i = start; i < limit; ++i) {
+            int c = buff.get(i) & 0xFF;
+            if (c == elementDelimiter) {
+                addElement(elementStart, i);
+                elementStart = i + 1;
+                if (elementCount() == 1 && skipRest()) {
+                    return skip(i + 1, atEof);
+                }
+            } else if (delimiters.isTerminator(c)) {
+                addElement(elementStart, i);
+                endSegment(i);
+                position = i + 1;
+                return true;
+            }
+        }
+        if (atEof) {
+            addElement(elementStart, limit);
+            endSegment(limit);
+            position = limit;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the end of a segment that's only split as far as its id.
+     */
+    private boolean skip(int from, boolean atEof) {
+        ByteBuffer buff = this.buffer;
+        for (int j = from; j < limit; ++j) {
+            if (delimiters.isTerminator(buff.get(j) & 0xFF)) {
+                endSegment(j);
+                position = j + 1;
+                return true;
+            }
+        }
+        if (atEof) {
+            endSegment(limit);
+            position = limit;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public long segmentOffset() {
+        return bufferOffset + segmentStart;
+    }
+
+    @Override
+    public char charAt(int position) {
+        return (char) (buffer.get(position) & 0xFF);
+    }
+
+    @Override
+    public String substring(int start, int end) {
+        int length = end - start;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length << 1)];
+        }
+        if (viewSource != buffer) {
+            viewSource = buffer;
+            view = buffer.duplicate();
+        }
+        view.clear();
+        view.position(start);
+        view.get(scratch, 0, length);
+
+        if (latin1 || isAscii(scratch, length)) {
+            return new String(scratch, 0, length, StandardCharsets.ISO_8859_1);
+        }
+        return new String(scratch, 0, length, charset);
+    }
+
+    /**
+     * Widens the bytes, unless a byte outside ASCII needs the charset to decode it.
+     */
+    @Override
+    public int elementChars(int index, char[] dst) {
+        ByteBuffer buff = this.buffer;
+        int start = elementStart(index);
+        int length = elementEnd(index) - start;
+        for (int i = 0; i < length; ++i) {
+            byte b = buff.get(start + i);
+            if (b < 0 && !latin1) {
+                String decoded = substring(start, start + length);
+                decoded.getChars(0, decoded.length(), dst, 0);
+                return decoded.length();
+            }
+            dst[i] = (char) (b & 0xFF);
+        }
+        return length;
+    }
+
+    private static boolean isAscii(byte[] bytes, int length) {
+        for (int i = 0; i < length; ++i) {
+            if (bytes[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
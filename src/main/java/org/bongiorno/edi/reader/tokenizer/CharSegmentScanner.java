@@ -0,0 +1,166 @@
+package org.bongiorno.edi.reader.tokenizer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+/**
+ * Scans segments out of a {@link Reader} into a single char buffer that is compacted and refilled in place. The buffer
+ * only grows if one segment is bigger than it.
+ */
+public class CharSegmentScanner extends SegmentScanner {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final Reader in;
+
+    private char[] buffer;
+
+    private int position;
+
+    private int limit;
+
+    /**
+     * absolute offset of buffer[0] in the input
+     */
+    private long bufferOffset;
+
+    public CharSegmentScanner(Reader in) throws IOException {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    public CharSegmentScanner(Reader in, int bufferSize) throws IOException {
+        this.in = in;
+        this.buffer = new char[Math.max(bufferSize, Delimiters.HEADER_LENGTH + 1)];
+
+        while (limit <= Delimiters.HEADER_LENGTH && fill()) {
+            // read enough for the BOM and the ISA header
+        }
+        if (limit == 0) {
+            throw new IOException("EOF before any data");
+        }
+        if (buffer[0] == '\uFEFF') {
+            position = 1;
+        }
+        this.delimiters = Delimiters.fromIsa(CharBuffer.wrap(buffer, position, limit - position));
+    }
+
+    @Override
+    public boolean advance() throws IOException {
+        for (; ; ) {
+            while (position < limit && delimiters.isTerminator(buffer[position])) {
+                ++position;
+            }
+            if (position == limit) {
+                if (!fill()) {
+                    return false;
+                }
+            } else if (scan(false) || (!fill() && scan(true))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Splits the segment starting at position in a single pass.
+     *
+     * @param atEof treat the end of the buffer as the end of the last, unterminated, segment
+     * @return false if the buffer ends before the segment does
+     */
+    private boolean scan(boolean atEof) {
+        char[] buff = this.buffer;
+        char elementDelimiter = delimiters.getElementDelimiter();
+        int start = position;
+        int elementStart = start;
+
+        beginSegment(start);
+        for (int i = start; i < limit; ++i) {
+            char c = buff[i];
+            if (c == elementDelimiter) {
+                addElement(elementStart, i);
+                elementStart = i + 1;
+                if (elementCount() == 1 && skipRest()) {
+                    return skip(i + 1, atEof);
+                }
+            } else if (delimiters.isTerminator(c)) {
+                addElement(elementStart, i);
+                endSegment(i);
+                position = i + 1;
+                return true;
+            }
+        }
+        if (atEof) {
+            addElement(elementStart, limit);
+            endSegment(limit);
+            position = limit;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the end of a segment that's only split as far as its id.
+     */
+    private boolean skip(int from, boolean atEof) {
+        char[] buff = this.buffer;
+        for (int j = from; j < limit; ++j) {
+            if (delimiters.isTerminator(buff[j])) {
+                endSegment(j);
+                position = j + 1;
+                return true;
+            }
+        }
+        if (atEof) {
+            endSegment(limit);
+            position = limit;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Discards everything before position and reads more. A partially scanned segment is rescanned from its start
+     * afterwards, which is cheaper than fixing up its bounds.
+     *
+     * @return false at end of input
+     */
+    private boolean fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            bufferOffset += position;
+            limit -= position;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            char[] grown = new char[buffer.length << 1];
+            System.arraycopy(buffer, 0, grown, 0, limit);
+            buffer = grown;
+        }
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    @Override
+    public long segmentOffset() {
+        return bufferOffset + segmentStart;
+    }
+
+    @Override
+    public char charAt(int position) {
+        return buffer[position];
+    }
+
+    @Override
+    public String substring(int start, int end) {
+        return new String(buffer, start, end - start);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
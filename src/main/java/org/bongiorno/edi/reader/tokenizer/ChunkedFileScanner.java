@@ -0,0 +1,313 @@
+package org.bongiorno.edi.reader.tokenizer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Predicate;
+
+/**
+ * Tokenizes a file in fixed size chunks on a pool, then hands the segments out in order.
+ * <p>
+ * The delimiters are known from the ISA header, so a worker can start anywhere: a segment starts at every
+ * non-terminator that follows a terminator. A chunk owns the segments that start inside it, skipping ahead to its
+ * first segment start and reading past its end to finish its last segment. Each worker records the element bounds of
+ * its segments in an int table, or only the id of a segment the {@link #setSkip(Predicate) skip filter} accepts;
+ * {@link #advance()} just replays the tables. Only a few chunks per thread are mapped and tokenized ahead of the
+ * reader, starting with the first call to {@link #advance()}.
+ */
+public class ChunkedFileScanner extends ByteSegmentScanner {
+
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * how far past its end a chunk is mapped at first, to finish its last segment
+     */
+    private static final int TAIL = 64 * 1024;
+
+    private final FileChannel channel;
+
+    private final boolean ownsChannel;
+
+    private final ForkJoinPool pool;
+
+    private final long end;
+
+    private final int chunkSize;
+
+    private final int maxInFlight;
+
+    private final long firstChunk;
+
+    private long nextChunk;
+
+    private final Deque<ForkJoinTask<Chunk>> chunks = new ArrayDeque<>();
+
+    private Predicate<String> skip;
+
+    private Chunk current;
+
+    private int entry;
+
+    public ChunkedFileScanner(Path file, Charset charset, ForkJoinPool pool) throws IOException {
+        this(file, charset, pool, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ChunkedFileScanner(Path file, Charset charset, ForkJoinPool pool, int chunkSize) throws IOException {
+        super(charset);
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.ownsChannel = true;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.maxInFlight = pool.getParallelism() * 2;
+        try {
+            this.end = channel.size();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(end, Delimiters.HEADER_LENGTH + 3));
+            limit = buffer.limit();
+            readHeader();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        this.firstChunk = position;
+        this.nextChunk = position;
+    }
+
+    /**
+     * Tokenizes the segments in [start, end) of a file whose delimiters are already known. The channel is shared, not
+     * closed.
+     */
+    public ChunkedFileScanner(FileChannel channel, Charset charset, Delimiters delimiters, long start, long end,
+                              ForkJoinPool pool) {
+        super(charset);
+        this.channel = channel;
+        this.ownsChannel = false;
+        this.pool = pool;
+        this.chunkSize = DEFAULT_CHUNK_SIZE;
+        this.maxInFlight = pool.getParallelism() * 2;
+        this.end = end;
+        this.delimiters = delimiters;
+        this.firstChunk = start;
+        this.nextChunk = start;
+    }
+
+    /**
+     * Chunks are split ahead of the reader, on the pool, so the filter is asked out of order and from several threads
+     * at once: it may only look at the id. It applies to the chunks not tokenized yet, which is all of them if it is
+     * set before the first call to {@link #advance()}.
+     */
+    @Override
+    public void setSkip(Predicate<String> skip) {
+        super.setSkip(skip);
+        this.skip = skip;
+    }
+
+    @Override
+    public boolean advance() throws IOException {
+        while (current == null || entry == current.size) {
+            submitChunks();
+            ForkJoinTask<Chunk> next = chunks.poll();
+            if (next == null) {
+                return false;
+            }
+            try {
+                current = next.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+            entry = 0;
+            buffer = current.buffer;
+            bufferOffset = current.offset;
+            position = 0;
+            limit = current.limit;
+        }
+
+        int[] table = current.table;
+        int count = table[entry++];
+        beginSegment(table[entry]);
+        for (int i = 0; i < count; ++i, entry += 2) {
+            addElement(table[entry], table[entry + 1]);
+        }
+        endSegment(table[entry++]);
+        return true;
+    }
+
+    @Override
+    protected boolean fill() {
+        return false;
+    }
+
+    private void submitChunks() {
+        while (chunks.size() < maxInFlight && nextChunk < end) {
+            long start = nextChunk;
+            long chunkEnd = Math.min(end, start + chunkSize);
+            Predicate<String> skip = this.skip;
+            chunks.add(pool.submit(() -> new Chunk(start, chunkEnd, skip).tokenize()));
+            nextChunk = chunkEnd;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (ForkJoinTask<Chunk> chunk : chunks) {
+            chunk.cancel(false);
+        }
+        chunks.clear();
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+
+    private class Chunk implements SymbolTable.Source {
+
+        /**
+         * absolute offset of buffer index 0: one byte before the chunk, so the byte ahead of its start can be seen
+         */
+        private final long offset;
+
+        private final long chunkEnd;
+
+        private final boolean first;
+
+        private final Predicate<String> skip;
+
+        private final SymbolTable segmentIds = new SymbolTable();
+
+        private ByteBuffer buffer;
+
+        private int limit;
+
+        /**
+         * per segment: the element count, then a start/end pair per element, then where the segment ends
+         */
+        private int[] table = new int[1024];
+
+        private int size;
+
+        private Chunk(long start, long chunkEnd, Predicate<String> skip) {
+            this.first = start == firstChunk;
+            this.offset = first ? start : start - 1;
+            this.chunkEnd = chunkEnd;
+            this.skip = skip;
+        }
+
+        private Chunk tokenize() throws IOException {
+            map(chunkEnd - offset + TAIL);
+            Delimiters delimiters = ChunkedFileScanner.this.delimiters;
+            int elementDelimiter = delimiters.getElementDelimiter();
+            int nominalEnd = (int) (chunkEnd - offset);
+
+            int p = first ? 0 : 1;
+            if (!first) {
+                while (p < nominalEnd && !(isTerminator(p - 1) && !isTerminator(p))) {
+                    ++p;
+                }
+            }
+            for (; ; ) {
+                while (p < nominalEnd && isTerminator(p)) {
+                    ++p;
+                }
+                if (p >= nominalEnd) {
+                    return this;
+                }
+                int countAt = reserve(1);
+                int count = 0;
+                int elementStart = p;
+                boolean skipping = false;
+                int segmentEnd;
+                for (int i = p; ; ++i) {
+                    if (i == limit && !grow()) {
+                        if (!skipping) {
+                            add(elementStart, i);
+                            ++count;
+                        }
+                        segmentEnd = i;
+                        p = i;
+                        break;
+                    }
+                    int c = buffer.get(i) & 0xFF;
+                    if (c == elementDelimiter && !skipping) {
+                        add(elementStart, i);
+                        elementStart = i + 1;
+                        skipping = ++count == 1 && skip != null && skip.test(segmentIds.lookup(this, p, i));
+                    } else if (delimiters.isTerminator(c)) {
+                        if (!skipping) {
+                            add(elementStart, i);
+                            ++count;
+                        }
+                        segmentEnd = i;
+                        p = i + 1;
+                        break;
+                    }
+                }
+                table[countAt] = count;
+                table[reserve(1)] = segmentEnd;
+            }
+        }
+
+        @Override
+        public char charAt(int position) {
+            return (char) (buffer.get(position) & 0xFF);
+        }
+
+        @Override
+        public String substring(int start, int end) {
+            byte[] bytes = new byte[end - start];
+            ByteBuffer view = buffer.duplicate();
+            view.position(start);
+            view.get(bytes);
+            return new String(bytes, charset);
+        }
+
+        private boolean isTerminator(int i) {
+            return delimiters.isTerminator(buffer.get(i) & 0xFF);
+        }
+
+        /**
+         * Maps more of the file after the chunk, from the same offset so positions stay valid.
+         */
+        private boolean grow() throws IOException {
+            if (offset + limit >= end) {
+                return false;
+            }
+            map(Math.min(Integer.MAX_VALUE, (long) limit << 1));
+            return true;
+        }
+
+        private void map(long length) throws IOException {
+            length = Math.min(length, end - offset);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            limit = (int) length;
+        }
+
+        private void add(int start, int end) {
+            int at = reserve(2);
+            table[at] = start;
+            table[at + 1] = end;
+        }
+
+        private int reserve(int n) {
+            if (size + n > table.length) {
+                int[] grown = new int[table.length << 1];
+                System.arraycopy(table, 0, grown, 0, size);
+                table = grown;
+            }
+            int at = size;
+            size += n;
+            return at;
+        }
+    }
+}
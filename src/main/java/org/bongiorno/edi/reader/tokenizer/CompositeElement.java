@@ -1,25 +1,31 @@
 package org.bongiorno.edi.reader.tokenizer;
 
 
-import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Pattern;
 
 public class CompositeElement extends Element {
 
+    private final char compositeDelimiter;
+
+    /**
+     * split on first use
+     */
     private List<String> parts;
 
     public CompositeElement(String str, Character compositeDelimiter) {
         super(str);
-        this.parts = Arrays.asList(str.split(Pattern.quote(compositeDelimiter.toString()), -1));
+        this.compositeDelimiter = compositeDelimiter;
     }
 
     public List<String> getParts() {
+        if (parts == null) {
+            parts = split(toString(), compositeDelimiter);
+        }
         return parts;
     }
 
     public String getPart(Integer position) {
-        return parts.get(position);
+        return getParts().get(position);
     }
 
     @Override
@@ -30,15 +36,14 @@ public class CompositeElement extends Element {
 
         CompositeElement that = (CompositeElement) o;
 
-        if (parts != null ? !parts.equals(that.parts) : that.parts != null) return false;
-
-        return true;
+        // the parts are a function of the string and the delimiter
+        return compositeDelimiter == that.compositeDelimiter;
     }
 
     @Override
     public int hashCode() {
         int result = super.hashCode();
-        result = 31 * result + (parts != null ? parts.hashCode() : 0);
+        result = 31 * result + compositeDelimiter;
         return result;
     }
 }
@@ -0,0 +1,135 @@
+package org.bongiorno.edi.reader.tokenizer;
+
+import java.io.IOException;
+
+/**
+ * The separator characters of an interchange, as declared by its fixed length ISA segment.
+ */
+public final class Delimiters {
+
+    /**
+     * The ISA segment is fixed length: 105 characters followed by the segment terminator.
+     */
+    public static final int ISA_LENGTH = 106;
+
+    /**
+     * How many characters of the interchange are needed to read every delimiter (terminator plus an optional CR/LF).
+     */
+    public static final int HEADER_LENGTH = 108;
+
+    private final char elementDelimiter;
+    private final char compositeDelimiter;
+    private final char repetitionSeparator;
+    private final String segmentDelimiter;
+
+    private final char terminator0;
+    private final char terminator1;
+    private final char terminator2;
+
+    public Delimiters(char elementDelimiter, char compositeDelimiter, char repetitionSeparator, String segmentDelimiter) {
+        if (segmentDelimiter == null || segmentDelimiter.isEmpty() || segmentDelimiter.length() > 3) {
+            throw new IllegalArgumentException("Segment delimiter must be 1 to 3 characters: '" + segmentDelimiter + "'");
+        }
+        this.elementDelimiter = elementDelimiter;
+        this.compositeDelimiter = compositeDelimiter;
+        this.repetitionSeparator = repetitionSeparator;
+        this.segmentDelimiter = segmentDelimiter;
+        this.terminator0 = segmentDelimiter.charAt(0);
+        this.terminator1 = segmentDelimiter.charAt(segmentDelimiter.length() > 1 ? 1 : 0);
+        this.terminator2 = segmentDelimiter.charAt(segmentDelimiter.length() > 2 ? 2 : 0);
+    }
+
+    /**
+     * Reads the delimiters out of the start of an interchange.
+     *
+     * @param header at least {@link #ISA_LENGTH} characters, starting at the 'I' of ISA
+     * @throws IOException if the data doesn't start with a well formed ISA segment
+     */
+    public static Delimiters fromIsa(CharSequence header) throws IOException {
+        int length = Math.min(header.length(), HEADER_LENGTH);
+        if (length < 3 || !"ISA".equalsIgnoreCase(header.subSequence(0, 3).toString())) {
+            throw new IOException("Data does not start with an ISA segment. It starts: '" + header.subSequence(0, length) + "'");
+        }
+        if (length < ISA_LENGTH) {
+            throw new IOException("Fixed length ISA segment is truncated. Segment: '" + header.subSequence(0, length) + "'");
+        }
+
+        char elementDelimiter = header.charAt(3);
+        int elementCount = 1;
+        for (int i = 0; i < length; ++i) {
+            if (header.charAt(i) == elementDelimiter) {
+                ++elementCount;
+            }
+        }
+        if (elementCount != 17) {
+            throw new IOException("Fixed length ISA segment doesn't have the right number of elements. Segment: '" + header.subSequence(0, length) + "'");
+        }
+
+        // the terminator is one character, optionally followed by CR and/or LF for readability
+        int end = ISA_LENGTH - 1;
+        char c = header.charAt(end);
+        if (c != '\r' && c != '\n') {
+            ++end;
+        }
+        if (end < length && header.charAt(end) == '\r') {
+            ++end;
+        }
+        if (end < length && header.charAt(end) == '\n') {
+            ++end;
+        }
+        String segmentDelimiter = header.subSequence(ISA_LENGTH - 1, end).toString();
+
+        return new Delimiters(elementDelimiter, header.charAt(104), header.charAt(82), segmentDelimiter);
+    }
+
+    public char getElementDelimiter() {
+        return elementDelimiter;
+    }
+
+    public char getCompositeDelimiter() {
+        return compositeDelimiter;
+    }
+
+    public char getRepetitionSeparator() {
+        return repetitionSeparator;
+    }
+
+    public String getSegmentDelimiter() {
+        return segmentDelimiter;
+    }
+
+    /**
+     * Every character of the segment delimiter ends a segment on its own, so "~\r\n" and a bare "\n" both do.
+     */
+    public boolean isTerminator(int c) {
+        return c == terminator0 || c == terminator1 || c == terminator2;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Delimiters that = (Delimiters) o;
+
+        return elementDelimiter == that.elementDelimiter
+                && compositeDelimiter == that.compositeDelimiter
+                && repetitionSeparator == that.repetitionSeparator
+                && segmentDelimiter.equals(that.segmentDelimiter);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = elementDelimiter;
+        result = 31 * result + compositeDelimiter;
+        result = 31 * result + repetitionSeparator;
+        result = 31 * result + segmentDelimiter.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Delimiters{element='" + elementDelimiter + "', composite='" + compositeDelimiter
+                + "', repetition='" + repetitionSeparator + "', segment='" + segmentDelimiter.replace("\r", "\\r").replace("\n", "\\n") + "'}";
+    }
+}
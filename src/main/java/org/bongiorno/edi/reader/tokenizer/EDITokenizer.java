@@ -2,102 +2,131 @@ package org.bongiorno.edi.reader.tokenizer;
 
 import java.io.*;
 import java.nio.charset.Charset;
-import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.function.Function;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class EDITokenizer implements Iterable<List<Element>>, Iterator<List<Element>> {
+public class EDITokenizer implements Iterable<List<Element>>, Iterator<List<Element>>, Closeable {
 
-    private StreamTokenizer tokenizer;
+    private final SegmentScanner scanner;
 
-    private String segmentDelimiter;
-    private Character elementDelimiter;
-    private Pattern elementDelimiterRegex;
-    private Character compositeDelimiter;
-    private Character repetitionSeparator;
-    private Function<String, Element> elementTransformer = string -> Element.create(string, compositeDelimiter, repetitionSeparator);
+    /**
+     * hasNext() has to look ahead, so remember whether the scanner is already sitting on an unconsumed segment.
+     */
+    private Boolean pending;
 
     public EDITokenizer(Reader in) throws IOException {
-        this(new BufferedReader(in, 4096));
+        this(new CharSegmentScanner(in));
     }
 
+    /**
+     * Charsets that can be scanned as bytes skip the InputStreamReader; see {@link ByteSegmentScanner}.
+     */
     public EDITokenizer(InputStream in, Charset charSet) throws IOException {
-        this(new BufferedReader(new InputStreamReader(in, charSet), 4096));
+        this(ByteSegmentScanner.isAsciiCompatible(charSet) ? new StreamSegmentScanner(in, charSet)
+                : new CharSegmentScanner(new InputStreamReader(in, charSet)));
     }
 
     public EDITokenizer(InputStream in, String charSet) throws IOException {
-        this(new BufferedReader(new InputStreamReader(in, Charset.forName(charSet)), 4096));
+        this(in, Charset.forName(charSet));
     }
 
-
     public EDITokenizer(BufferedReader reader) throws IOException {
-        reader.mark(128);
-        if(reader.read() == '\uFEFF') {
-            reader.mark(128);
-        }else{
-            reader.reset();
-        }
+        this((Reader) reader);
+    }
 
-        char[] buff = new char[108];
-        int readResult = reader.read(buff);
-        if(readResult == -1){
-            throw new IOException("EOF before any data");
-        }
+    public EDITokenizer(SegmentScanner scanner) {
+        this.scanner = scanner;
+    }
+
+    /**
+     * Tokenizes a file through memory mapped windows, using the platform default charset.
+     */
+    public static EDITokenizer open(Path file) throws IOException {
+        return open(file, Charset.defaultCharset());
+    }
 
-        elementDelimiter = buff[3];
-        repetitionSeparator = buff[82];
-        compositeDelimiter = buff[104];
-        segmentDelimiter = new String(buff, 105, 3);
-        segmentDelimiter = segmentDelimiter.replaceFirst("^(.?\\r?\\n?).?.?", "$1");
-        this.elementDelimiterRegex = Pattern.compile(Pattern.quote(String.valueOf(elementDelimiter)));
-
-        validateFirstSegment(buff, elementDelimiter);
-
-        tokenizer = new StreamTokenizer(reader);
-        tokenizer.resetSyntax();
-        // Everything is part of a token except the segment delimiter.
-        tokenizer.wordChars(Character.MIN_VALUE, Character.MAX_VALUE);
-        for(int i = 0; i < segmentDelimiter.length(); ++i){
-            char c = segmentDelimiter.charAt(i);
-            tokenizer.whitespaceChars(c, c);
+    /**
+     * Tokenizes a file through memory mapped windows. Charsets that can't be scanned as bytes (UTF-16 for example) fall
+     * back to reading through a decoder.
+     */
+    public static EDITokenizer open(Path file, Charset charset) throws IOException {
+        if (ByteSegmentScanner.isAsciiCompatible(charset)) {
+            return new EDITokenizer(new MappedFileScanner(file, charset));
         }
+        return new EDITokenizer(new InputStreamReader(Files.newInputStream(file), charset));
+    }
+
+    /**
+     * Tokenizes only [start, end) of a file, e.g. one transaction set or loop found through an index, without reading
+     * anything before it. The range starts with a segment, so the delimiters have to be known already.
+     *
+     * @param charset one that can be scanned as bytes, see {@link ByteSegmentScanner#isAsciiCompatible(Charset)}
+     */
+    public static EDITokenizer open(Path file, Charset charset, Delimiters delimiters, long start, long end) throws IOException {
+        return new EDITokenizer(new MappedFileScanner(file, charset, delimiters, start, end));
+    }
 
-        reader.reset();
+    /**
+     * Tokenizes a file in chunks on a pool. Charsets that can't be scanned as bytes are read sequentially.
+     */
+    public static EDITokenizer open(Path file, Charset charset, ForkJoinPool pool) throws IOException {
+        if (ByteSegmentScanner.isAsciiCompatible(charset)) {
+            return new EDITokenizer(new ChunkedFileScanner(file, charset, pool));
+        }
+        return open(file, charset);
     }
 
     public Character getRepetitionSeparator() {
-        return repetitionSeparator;
+        return scanner.getDelimiters().getRepetitionSeparator();
     }
 
     public Character getCompositeDelimiter() {
-        return compositeDelimiter;
+        return scanner.getDelimiters().getCompositeDelimiter();
     }
 
     public Character getElementDelimiter() {
-        return elementDelimiter;
+        return scanner.getDelimiters().getElementDelimiter();
     }
 
     public String getSegmentDelimiter() {
-        return segmentDelimiter;
+        return scanner.getDelimiters().getSegmentDelimiter();
+    }
+
+    public Delimiters getDelimiters() {
+        return scanner.getDelimiters();
     }
 
-    private void validateFirstSegment(char[] buff, char elementDelimiter) throws IOException {
-        if (!"ISA".equalsIgnoreCase(new String(buff, 0, 3))) {
-            throw new IOException("Data does not start with an ISA segment. It starts: '" + new String(buff)+"'");
+    /**
+     * The allocation free alternative to iterating. Don't mix the two on one tokenizer.
+     */
+    public SegmentCursor cursor() {
+        if (pending != null) {
+            throw new IllegalStateException("The tokenizer has already been iterated");
         }
-        int elementCount = 1;
-        for (char c : buff) {
-            if( c == elementDelimiter){
-                ++elementCount;
+        return scanner;
+    }
+
+    /**
+     * The segments, read as the stream is consumed. Closing the stream closes the tokenizer.
+     */
+    public Stream<List<Element>> stream() {
+        Spliterator<List<Element>> segments = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(segments, false).onClose(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
             }
-        }
-        if(elementCount != 17){
-            throw new IOException("Fixed length ISA segment doesn't have the right number of elements. Segment: '" + new String(buff) + "'");
-        }
+        });
     }
 
     @Override
@@ -107,36 +136,50 @@ public class EDITokenizer implements Iterable<List<Element>>, Iterator<List<Elem
 
     @Override
     public boolean hasNext() {
-        try {
-            tokenizer.nextToken();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        if (pending == null) {
+            try {
+                pending = scanner.advance();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
-        tokenizer.pushBack();
-        return tokenizer.ttype != StreamTokenizer.TT_EOF;
+        return pending;
     }
 
     @Override
     public List<Element> next() {
-        String raw = nextRaw();
-        String[] elements = elementDelimiterRegex.split(raw, -1);
-        return Arrays.stream(elements).map(elementTransformer).collect(Collectors.toList());
+        consume();
+        Delimiters delimiters = scanner.getDelimiters();
+        Character compositeDelimiter = delimiters.getCompositeDelimiter();
+        Character repetitionSeparator = delimiters.getRepetitionSeparator();
+
+        int count = scanner.elementCount();
+        List<Element> result = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            result.add(Element.create(scanner.elementString(i), compositeDelimiter, repetitionSeparator));
+        }
+        return result;
     }
 
     public String nextRaw() {
-        try {
-            tokenizer.nextToken();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        if (tokenizer.ttype == StreamTokenizer.TT_EOF) {
+        consume();
+        return scanner.segmentString();
+    }
+
+    private void consume() {
+        if (!hasNext()) {
             throw new NoSuchElementException();
         }
-        return tokenizer.sval;
+        pending = null;
     }
 
     @Override
     public void remove() {
         throw new UnsupportedOperationException("Can't modify the underlying data stream");
     }
+
+    @Override
+    public void close() throws IOException {
+        scanner.close();
+    }
 }
@@ -3,8 +3,9 @@ package org.bongiorno.edi.reader.tokenizer;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.function.Predicate;
 
@@ -46,7 +47,7 @@ public enum EDIType {
      */
     private String uniqueTransactionSegment;
 
-    private Predicate<Iterable<List<Element>>> headerMatchPredicate;
+    private Predicate<Iterable<List<String>>> headerMatchPredicate;
 
     private static final List<EDIType> VALUES = Arrays.asList(EDIType.values());
     private static final Map<String, EDIType> stringLookup;
@@ -58,7 +59,7 @@ public enum EDIType {
         }
     }
 
-    EDIType(String simpleName, Predicate<Iterable<List<Element>>> headerMatchPredicate, String headerEndSegment, String uniqueTransactionSegment) {
+    EDIType(String simpleName, Predicate<Iterable<List<String>>> headerMatchPredicate, String headerEndSegment, String uniqueTransactionSegment) {
         this.simpleName = simpleName;
         this.headerEndSegment = headerEndSegment;
         this.headerMatchPredicate = headerMatchPredicate;
@@ -86,17 +87,39 @@ public enum EDIType {
         return simpleName;
     }
 
+    /**
+     * Reads at most {@link HeaderSniffer#MAX_PREFIX} bytes of the stream. Use a {@link HeaderSniffer} directly to get
+     * them back.
+     *
+     * @throws NoSuchElementException if no type matches the header
+     */
     public static EDIType fromStream(InputStream in, Charset charset) throws IOException {
-        final List<List<Element>> headers = new ArrayList<>(3);
-        EDITokenizer ediTokenizer = new EDITokenizer(new InputStreamReader(in, charset));
-        ediTokenizer.next(); //ISA
-        headers.add(ediTokenizer.next()); // GS
-        headers.add(ediTokenizer.next()); // ST
-        headers.add(ediTokenizer.next()); // BHT
-        return VALUES.stream().filter(type ->  type.headerMatchPredicate.test(headers)).findFirst().get();
+        InterchangeHeader header = new HeaderSniffer(in, charset).getHeader();
+        if (header.getType() == null) {
+            throw new NoSuchElementException("No EDI type matches " + header);
+        }
+        return header.getType();
+    }
+
+    public static EDIType fromFile(Path file, Charset charset) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return fromStream(in, charset);
+        }
+    }
+
+    /**
+     * @return the type whose predicate matches the leading segments, or null
+     */
+    static EDIType fromHeaders(List<List<String>> headers) {
+        try {
+            return VALUES.stream().filter(type -> type.headerMatchPredicate.test(headers)).findFirst().orElse(null);
+        } catch (IllegalArgumentException e) {
+            // a segment a predicate needs is missing or too short
+            return null;
+        }
     }
 
-    private static class ElementMatcher implements Predicate<Iterable<List<Element>>> {
+    private static class ElementMatcher implements Predicate<Iterable<List<String>>> {
 
         private String targetSegmentId;
         private int targetIndex;
@@ -110,10 +133,10 @@ public enum EDIType {
         }
 
         @Override
-        public boolean test(Iterable<List<Element>> segments) {
-            List<Element> targetSegment = null;
-            for (List<Element> segment : segments) {
-                if (targetSegmentId.equals(segment.get(0).toString())) {
+        public boolean test(Iterable<List<String>> segments) {
+            List<String> targetSegment = null;
+            for (List<String> segment : segments) {
+                if (targetSegmentId.equals(segment.get(0))) {
                     targetSegment = segment;
                     break;
                 }
@@ -125,8 +148,7 @@ public enum EDIType {
                 throw new IllegalArgumentException(String.format("%s%02d not found (segment too short)", targetSegment, targetIndex));
             }
 
-            Element element = targetSegment.get(targetIndex);
-            return element.toString().startsWith(targetString);
+            return targetSegment.get(targetIndex).startsWith(targetString);
         }
     }
 }
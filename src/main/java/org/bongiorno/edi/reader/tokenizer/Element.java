@@ -1,5 +1,8 @@
 package org.bongiorno.edi.reader.tokenizer;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class Element {
     private String str;
 
@@ -12,12 +15,22 @@ public class Element {
         return str;
     }
 
+    /**
+     * Only looks at the string once to pick the element type. Composites and repetitions aren't split until someone
+     * asks for their parts.
+     */
     public static Element create(String elementString, Character compositeDelimiter, Character repeatDelimiter) {
-        if (elementString.indexOf(repeatDelimiter) == -1) {
-            return create(elementString, compositeDelimiter);
-        } else {
-            return new RepeatingElement(elementString, compositeDelimiter, repeatDelimiter);
+        char composite = compositeDelimiter;
+        char repeat = repeatDelimiter;
+        boolean isComposite = false;
+        for (int i = 0; i < elementString.length(); ++i) {
+            char c = elementString.charAt(i);
+            if (c == repeat) {
+                return new RepeatingElement(elementString, compositeDelimiter, repeatDelimiter);
+            }
+            isComposite |= c == composite;
         }
+        return isComposite ? new CompositeElement(elementString, compositeDelimiter) : new Element(elementString);
     }
 
     public static Element create(String elementString, Character compositeDelimiter) {
@@ -28,6 +41,20 @@ public class Element {
         }
     }
 
+    /**
+     * Same result as String.split(Pattern.quote(delimiter), -1), without the regex.
+     */
+    static List<String> split(String str, char delimiter) {
+        List<String> result = new ArrayList<>(4);
+        int start = 0;
+        for (int end = str.indexOf(delimiter); end != -1; end = str.indexOf(delimiter, start)) {
+            result.add(str.substring(start, end));
+            start = end + 1;
+        }
+        result.add(str.substring(start));
+        return result;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
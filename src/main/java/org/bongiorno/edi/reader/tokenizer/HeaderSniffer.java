@@ -0,0 +1,90 @@
+package org.bongiorno.edi.reader.tokenizer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads just enough of a stream to describe the interchange: the ISA segment and the {@value #HEADER_SEGMENTS}
+ * segments after it, never more than {@value #MAX_PREFIX} bytes. The bytes it read are handed back in front of the
+ * rest of the stream by {@link #getInputStream()}, so the parser can start from the beginning without the stream
+ * having to support mark/reset.
+ */
+public class HeaderSniffer {
+
+    /**
+     * ISA, GS, ST and the segment after ST, which is enough for {@link EDIType}
+     */
+    public static final int HEADER_SEGMENTS = 4;
+
+    public static final int MAX_PREFIX = 4096;
+
+    private final InterchangeHeader header;
+
+    private final InputStream inputStream;
+
+    public HeaderSniffer(InputStream in, Charset charset) throws IOException {
+        byte[] prefix = new byte[MAX_PREFIX];
+        List<List<String>> segments = new ArrayList<>(HEADER_SEGMENTS);
+        int length = 0;
+
+        if (ByteSegmentScanner.isAsciiCompatible(charset)) {
+            PushTokenizer tokenizer = new PushTokenizer(charset, cursor -> {
+                if (segments.size() < HEADER_SEGMENTS) {
+                    segments.add(strings(cursor));
+                }
+            });
+            while (segments.size() < HEADER_SEGMENTS && length < prefix.length) {
+                int read = in.read(prefix, length, prefix.length - length);
+                if (read == -1) {
+                    tokenizer.endOfInput();
+                    break;
+                }
+                tokenizer.feed(ByteBuffer.wrap(prefix, length, read));
+                length += read;
+            }
+            if (segments.isEmpty()) {
+                tokenizer.endOfInput();
+            }
+            this.header = new InterchangeHeader(tokenizer.getDelimiters(), segments);
+        } else {
+            // without byte scanning there's no telling where a segment ends until it's decoded, so take the whole prefix
+            for (int read = 0; read != -1 && length < prefix.length; read = in.read(prefix, length, prefix.length - length)) {
+                length += read;
+            }
+            EDITokenizer tokenizer = new EDITokenizer(new InputStreamReader(new ByteArrayInputStream(prefix, 0, length), charset));
+            SegmentCursor cursor = tokenizer.cursor();
+            while (segments.size() < HEADER_SEGMENTS && cursor.advance()) {
+                segments.add(strings(cursor));
+            }
+            this.header = new InterchangeHeader(tokenizer.getDelimiters(), segments);
+        }
+        this.inputStream = new SequenceInputStream(new ByteArrayInputStream(Arrays.copyOf(prefix, length)), in);
+    }
+
+    public InterchangeHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the whole input: the bytes read while sniffing followed by the rest of the original stream
+     */
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    private static List<String> strings(SegmentCursor cursor) {
+        List<String> segment = new ArrayList<>(cursor.elementCount());
+        for (int i = 0; i < cursor.elementCount(); ++i) {
+            segment.add(cursor.element(i).toString());
+        }
+        return segment;
+    }
+}
@@ -0,0 +1,93 @@
+package org.bongiorno.edi.reader.tokenizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What the first few segments of an interchange say about it: its delimiters, its ISA, GS and ST segments and the
+ * {@link EDIType} they resolve to.
+ */
+public final class InterchangeHeader {
+
+    private final Delimiters delimiters;
+
+    private final List<List<String>> segments;
+
+    private final EDIType type;
+
+    InterchangeHeader(Delimiters delimiters, List<List<String>> segments) {
+        this.delimiters = delimiters;
+        List<List<String>> copy = new ArrayList<>(segments.size());
+        for (List<String> segment : segments) {
+            copy.add(Collections.unmodifiableList(new ArrayList<>(segment)));
+        }
+        this.segments = Collections.unmodifiableList(copy);
+        this.type = EDIType.fromHeaders(this.segments);
+    }
+
+    public Delimiters getDelimiters() {
+        return delimiters;
+    }
+
+    /**
+     * @return the leading segments, ISA first, each as its elements with the segment id at 0
+     */
+    public List<List<String>> getSegments() {
+        return segments;
+    }
+
+    /**
+     * @return the first segment with this id, or an empty list
+     */
+    public List<String> getSegment(String segmentId) {
+        for (List<String> segment : segments) {
+            if (segment.get(0).equals(segmentId)) {
+                return segment;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    public List<String> getIsa() {
+        return getSegment("ISA");
+    }
+
+    public List<String> getGs() {
+        return getSegment("GS");
+    }
+
+    public List<String> getSt() {
+        return getSegment("ST");
+    }
+
+    /**
+     * @return ISA12, the interchange control version, e.g. 00501
+     */
+    public String getInterchangeVersion() {
+        return element(getIsa(), 12);
+    }
+
+    /**
+     * @return GS08, the implementation version, e.g. 005010X222A1
+     */
+    public String getVersion() {
+        return element(getGs(), 8);
+    }
+
+    /**
+     * @return the type the header matches, or null if it matches none
+     */
+    public EDIType getType() {
+        return type;
+    }
+
+    private static String element(List<String> segment, int index) {
+        return index < segment.size() ? segment.get(index) : null;
+    }
+
+    @Override
+    public String toString() {
+        return "InterchangeHeader{" + "type=" + type + ", delimiters=" + delimiters + ", segments=" + segments + '}';
+    }
+}
@@ -0,0 +1,127 @@
+package org.bongiorno.edi.reader.tokenizer;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Scans a file through a sliding memory mapped window, so there is no read syscall, no charset decoding and no copy
+ * into a heap buffer. Files bigger than 2GB work because only one window is mapped at a time; when a segment runs off
+ * the end of a window the next window is mapped starting at that segment.
+ */
+public class MappedFileScanner extends ByteSegmentScanner {
+
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final Path file;
+
+    private final FileChannel channel;
+
+    private final boolean ownsChannel;
+
+    /**
+     * absolute offset at which scanning stops
+     */
+    private final long end;
+
+    private int windowSize;
+
+    public MappedFileScanner(Path file, Charset charset) throws IOException {
+        this(file, charset, DEFAULT_WINDOW_SIZE);
+    }
+
+    public MappedFileScanner(Path file, Charset charset, int windowSize) throws IOException {
+        super(charset);
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.ownsChannel = true;
+        try {
+            this.end = channel.size();
+            this.windowSize = Math.max(windowSize, Delimiters.HEADER_LENGTH + 3);
+            map(0);
+            readHeader();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Scans the segments in [start, end) of a file whose delimiters are already known, e.g. one transaction set found
+     * by an earlier pass. The channel is shared, not closed.
+     */
+    public MappedFileScanner(FileChannel channel, Charset charset, Delimiters delimiters, long start, long end) throws IOException {
+        super(charset);
+        this.file = null;
+        this.channel = channel;
+        this.ownsChannel = false;
+        this.end = end;
+        this.windowSize = DEFAULT_WINDOW_SIZE;
+        this.delimiters = delimiters;
+        map(start);
+    }
+
+    /**
+     * Scans the segments in [start, end) of a file whose delimiters are already known, opening a channel of its own.
+     */
+    public MappedFileScanner(Path file, Charset charset, Delimiters delimiters, long start, long end) throws IOException {
+        super(charset);
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.ownsChannel = true;
+        this.end = end;
+        this.windowSize = DEFAULT_WINDOW_SIZE;
+        this.delimiters = delimiters;
+        try {
+            map(start);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    protected boolean fill() throws IOException {
+        long keepFrom = bufferOffset + position;
+        if (bufferOffset + limit >= end) {
+            return false;
+        }
+        if (keepFrom == bufferOffset) {
+            // one segment fills the whole window
+            windowSize = (int) Math.min(Integer.MAX_VALUE, (long) windowSize << 1);
+        }
+        map(keepFrom);
+        return true;
+    }
+
+    private void map(long offset) throws IOException {
+        long length = Math.min(windowSize, end - offset);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        bufferOffset = offset;
+        position = 0;
+        limit = (int) length;
+    }
+
+    /**
+     * @return the offset at which scanning stops, the file size unless a range was given
+     */
+    public long size() {
+        return end;
+    }
+
+    /**
+     * @return the file scanned, or null if the scanner was handed a channel
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.bongiorno.edi.reader.tokenizer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.function.Consumer;
+
+/**
+ * Tokenizes input that is pushed at it in pieces, e.g. as it arrives on a non-blocking channel, instead of pulling
+ * from a blocking Reader. Each segment goes to the handler as soon as its terminator has been fed; the bytes of a
+ * segment that is still incomplete are kept until the next {@link #feed(ByteBuffer)}. Incoming data is copied in a
+ * buffer's worth at a time, so memory stays at the buffer size, or the longest segment, however big the input is.
+ * <p>
+ * The handler gets this tokenizer as its cursor. It must not call {@link #advance()}; pushing is what advances.
+ */
+public class PushTokenizer extends ByteSegmentScanner {
+
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    private final Consumer<SegmentCursor> handler;
+
+    private final Runnable onEnd;
+
+    private boolean ended;
+
+    public PushTokenizer(Charset charset, Consumer<SegmentCursor> handler) {
+        this(charset, handler, () -> {
+        });
+    }
+
+    /**
+     * @param onEnd run by {@link #endOfInput()} after the last segment has been handled
+     */
+    public PushTokenizer(Charset charset, Consumer<SegmentCursor> handler, Runnable onEnd) {
+        super(charset);
+        this.handler = handler;
+        this.onEnd = onEnd;
+        this.buffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Consumes all of data's remaining bytes, handling every segment they complete.
+     */
+    public void feed(ByteBuffer data) throws IOException {
+        if (ended) {
+            throw new IllegalStateException("Input has already ended");
+        }
+        while (data.hasRemaining()) {
+            if (limit == buffer.capacity()) {
+                makeRoom();
+            }
+            int length = Math.min(data.remaining(), buffer.capacity() - limit);
+            data.get(buffer.array(), buffer.arrayOffset() + limit, length);
+            limit += length;
+            drain(false);
+        }
+    }
+
+    /**
+     * Handles the last segment, even without a terminator, then runs the end callback.
+     */
+    public void endOfInput() throws IOException {
+        if (ended) {
+            return;
+        }
+        ended = true;
+        drain(true);
+        onEnd.run();
+    }
+
+    private void drain(boolean atEof) throws IOException {
+        if (delimiters == null) {
+            if (!atEof && limit - position <= Delimiters.HEADER_LENGTH + 2) {
+                // not enough for the header, and the BOM in front of it, yet
+                return;
+            }
+            readHeader();
+        }
+        for (; ; ) {
+            while (position < limit && delimiters.isTerminator(buffer.get(position) & 0xFF)) {
+                ++position;
+            }
+            if (position == limit || !scan(atEof)) {
+                return;
+            }
+            handler.accept(this);
+        }
+    }
+
+    /**
+     * Drops the bytes already handled, or grows the buffer when one segment fills it.
+     */
+    private void makeRoom() {
+        if (position > 0) {
+            byte[] array = buffer.array();
+            System.arraycopy(array, buffer.arrayOffset() + position, array, buffer.arrayOffset(), limit - position);
+            bufferOffset += position;
+            limit -= position;
+            position = 0;
+        } else {
+            ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() << 1);
+            System.arraycopy(buffer.array(), buffer.arrayOffset(), grown.array(), 0, limit);
+            buffer = grown;
+        }
+    }
+
+    @Override
+    public boolean advance() {
+        throw new UnsupportedOperationException("Input is pushed with feed()");
+    }
+
+    @Override
+    protected boolean fill() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+    }
+}
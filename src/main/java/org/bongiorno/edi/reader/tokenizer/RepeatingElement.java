@@ -1,24 +1,34 @@
 package org.bongiorno.edi.reader.tokenizer;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Pattern;
-
-import static java.util.Arrays.stream;
-import static java.util.stream.Collectors.toList;
 
 public class RepeatingElement extends Element {
 
+    private final Character compositeDelimiter;
+
+    private final char repetitionDelimiter;
+
+    /**
+     * split on first use
+     */
     private List<Element> elements;
 
     public RepeatingElement(String str, Character compositeDelimiter, Character repetitionDelimiter) {
         super(str);
-        String[] subElements = str.split(Pattern.quote(repetitionDelimiter.toString()), -1);
-        elements = stream(subElements)
-                .map(se -> Element.create(se, compositeDelimiter))
-                .collect(toList());
+        this.compositeDelimiter = compositeDelimiter;
+        this.repetitionDelimiter = repetitionDelimiter;
     }
 
     public List<Element> getElements() {
+        if (elements == null) {
+            List<String> subElements = split(toString(), repetitionDelimiter);
+            List<Element> result = new ArrayList<>(subElements.size());
+            for (String se : subElements) {
+                result.add(Element.create(se, compositeDelimiter));
+            }
+            elements = result;
+        }
         return elements;
     }
 
@@ -30,15 +40,15 @@ public class RepeatingElement extends Element {
 
         RepeatingElement that = (RepeatingElement) o;
 
-        if (elements != null ? !elements.equals(that.elements) : that.elements != null) return false;
-
-        return true;
+        // the elements are a function of the string and the delimiters
+        return repetitionDelimiter == that.repetitionDelimiter && compositeDelimiter.equals(that.compositeDelimiter);
     }
 
     @Override
     public int hashCode() {
         int result = super.hashCode();
-        result = 31 * result + (elements != null ? elements.hashCode() : 0);
+        result = 31 * result + repetitionDelimiter;
+        result = 31 * result + compositeDelimiter.hashCode();
         return result;
     }
 }
@@ -0,0 +1,54 @@
+package org.bongiorno.edi.reader.tokenizer;
+
+import java.io.IOException;
+
+/**
+ * A flyweight view of the current segment. The same cursor, and the same element views, are reused for every
+ * segment, so nothing returned from it may be held on to past the next {@link #advance()} unless it is copied with
+ * toString().
+ */
+public interface SegmentCursor {
+
+    /**
+     * Moves to the next segment.
+     *
+     * @return false once the input is exhausted
+     */
+    boolean advance() throws IOException;
+
+    /**
+     * @return the id of the current segment. Ids are canonical (interned) Strings, so reading them doesn't allocate.
+     */
+    String segmentId();
+
+    /**
+     * @return the number of elements in the current segment, counting the segment id as element 0
+     */
+    int elementCount();
+
+    /**
+     * @return a view of an element of the current segment. It reads through to the underlying buffer, so it's only
+     * valid until the next {@link #advance()}.
+     */
+    CharSequence element(int index);
+
+    /**
+     * Compares an element against a value without creating a String.
+     */
+    boolean elementEquals(int index, CharSequence value);
+
+    /**
+     * @return the position of c within an element, or -1
+     */
+    int elementIndexOf(int index, char c);
+
+    /**
+     * Copies an element's characters into dst, so they can be handed on without creating a String.
+     *
+     * @param dst at least {@code element(index).length()} long
+     * @return the number of characters copied
+     */
+    int elementChars(int index, char[] dst);
+
+    Delimiters getDelimiters();
+}
@@ -0,0 +1,219 @@
+package org.bongiorno.edi.reader.tokenizer;
+
+import java.io.Closeable;
+import java.util.function.Predicate;
+
+/**
+ * Finds segment and element boundaries in a reusable buffer without creating a String per segment or element.
+ * <p>
+ * After {@link #advance()} returns true the current segment's elements are available as [start, end) slices of the
+ * buffer; element 0 is the segment id. The slices are only valid until the next call to {@link #advance()}.
+ * Subclasses own the buffer and decide how it gets filled.
+ */
+public abstract class SegmentScanner implements SegmentCursor, SymbolTable.Source, Closeable {
+
+    protected Delimiters delimiters;
+
+    /**
+     * start/end pairs, relative to segmentStart so that compacting the buffer doesn't invalidate them
+     */
+    private int[] bounds = new int[64];
+
+    private int elementCount;
+
+    protected int segmentStart;
+
+    protected int segmentEnd;
+
+    private final SymbolTable segmentIds = new SymbolTable();
+
+    private String segmentId;
+
+    /**
+     * one view per element position, created the first time a segment that long shows up
+     */
+    private ElementView[] views = new ElementView[0];
+
+    private Predicate<String> skip;
+
+    @Override
+    public Delimiters getDelimiters() {
+        return delimiters;
+    }
+
+    /**
+     * @return the absolute position in the input at which the current segment starts
+     */
+    public abstract long segmentOffset();
+
+    public abstract char charAt(int position);
+
+    public abstract String substring(int start, int end);
+
+    /**
+     * Segments whose id the filter accepts are only split as far as their id: the scan jumps straight to the segment
+     * terminator, and they come out with an {@link #elementCount()} of 1. The filter is asked as each segment is
+     * scanned, so it can depend on what the segments before it were, except in scanners that split ahead of time; see
+     * {@link ChunkedFileScanner#setSkip(Predicate)}.
+     *
+     * @param skip null to split every segment
+     */
+    public void setSkip(Predicate<String> skip) {
+        this.skip = skip;
+    }
+
+    /**
+     * For subclasses to ask once the segment id is added: whether to pass over the rest of the segment.
+     */
+    protected final boolean skipRest() {
+        return skip != null && skip.test(segmentId());
+    }
+
+    @Override
+    public int elementCount() {
+        return elementCount;
+    }
+
+    @Override
+    public String segmentId() {
+        if (segmentId == null) {
+            segmentId = segmentIds.lookup(this, elementStart(0), elementEnd(0));
+        }
+        return segmentId;
+    }
+
+    @Override
+    public CharSequence element(int index) {
+        checkIndex(index);
+        if (index >= views.length) {
+            ElementView[] grown = new ElementView[Math.max(index + 1, views.length << 1)];
+            System.arraycopy(views, 0, grown, 0, views.length);
+            for (int i = views.length; i < grown.length; ++i) {
+                grown[i] = new ElementView(i);
+            }
+            views = grown;
+        }
+        return views[index];
+    }
+
+    @Override
+    public boolean elementEquals(int index, CharSequence value) {
+        int start = elementStart(index);
+        int length = elementEnd(index) - start;
+        if (value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (charAt(start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int elementIndexOf(int index, char c) {
+        int start = elementStart(index);
+        int end = elementEnd(index);
+        for (int i = start; i < end; ++i) {
+            if (charAt(i) == c) {
+                return i - start;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int elementChars(int index, char[] dst) {
+        int start = elementStart(index);
+        int length = elementEnd(index) - start;
+        for (int i = 0; i < length; ++i) {
+            dst[i] = charAt(start + i);
+        }
+        return length;
+    }
+
+    public int elementStart(int index) {
+        checkIndex(index);
+        return segmentStart + bounds[index << 1];
+    }
+
+    public int elementEnd(int index) {
+        checkIndex(index);
+        return segmentStart + bounds[(index << 1) + 1];
+    }
+
+    public int segmentStart() {
+        return segmentStart;
+    }
+
+    public int segmentEnd() {
+        return segmentEnd;
+    }
+
+    public String elementString(int index) {
+        return substring(elementStart(index), elementEnd(index));
+    }
+
+    public String segmentString() {
+        return substring(segmentStart, segmentEnd);
+    }
+
+    protected final void beginSegment(int start) {
+        segmentStart = start;
+        elementCount = 0;
+        segmentId = null;
+    }
+
+    protected final void addElement(int start, int end) {
+        int i = elementCount << 1;
+        if (i == bounds.length) {
+            int[] grown = new int[bounds.length << 1];
+            System.arraycopy(bounds, 0, grown, 0, bounds.length);
+            bounds = grown;
+        }
+        bounds[i] = start - segmentStart;
+        bounds[i + 1] = end - segmentStart;
+        ++elementCount;
+    }
+
+    protected final void endSegment(int end) {
+        segmentEnd = end;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= elementCount) {
+            throw new IndexOutOfBoundsException("Element " + index + " of a segment with " + elementCount + " elements");
+        }
+    }
+
+    private class ElementView implements CharSequence {
+
+        private final int index;
+
+        private ElementView(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public int length() {
+            return elementEnd(index) - elementStart(index);
+        }
+
+        @Override
+        public char charAt(int i) {
+            return SegmentScanner.this.charAt(elementStart(index) + i);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            int offset = elementStart(index);
+            return substring(offset + start, offset + end);
+        }
+
+        @Override
+        public String toString() {
+            return elementString(index);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.bongiorno.edi.reader.tokenizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Scans segments straight out of an InputStream's bytes, skipping the InputStreamReader decode of every byte. The
+ * buffer is compacted and refilled in place and only grows if one segment is bigger than it.
+ */
+public class StreamSegmentScanner extends ByteSegmentScanner {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+
+    public StreamSegmentScanner(InputStream in, Charset charset) throws IOException {
+        this(in, charset, DEFAULT_BUFFER_SIZE);
+    }
+
+    public StreamSegmentScanner(InputStream in, Charset charset, int bufferSize) throws IOException {
+        super(charset);
+        this.in = in;
+        this.buffer = ByteBuffer.allocate(Math.max(bufferSize, Delimiters.HEADER_LENGTH + 3));
+        readHeader();
+    }
+
+    /**
+     * Discards everything before position and reads more. A partially scanned segment is rescanned from its start
+     * afterwards.
+     */
+    @Override
+    protected boolean fill() throws IOException {
+        byte[] array = buffer.array();
+        if (position > 0) {
+            System.arraycopy(array, position, array, 0, limit - position);
+            bufferOffset += position;
+            limit -= position;
+            position = 0;
+        }
+        if (limit == array.length) {
+            ByteBuffer grown = ByteBuffer.allocate(array.length << 1);
+            System.arraycopy(array, 0, grown.array(), 0, limit);
+            buffer = grown;
+            array = grown.array();
+        }
+        int read = in.read(array, limit, array.length - limit);
+        if (read < 0) {
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
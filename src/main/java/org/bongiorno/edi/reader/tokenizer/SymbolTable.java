@@ -0,0 +1,85 @@
+package org.bongiorno.edi.reader.tokenizer;
+
+/**
+ * Maps short runs of buffer characters, like segment ids, to canonical Strings without allocating once a symbol has
+ * been seen. Not thread safe; each scanner has its own.
+ */
+final class SymbolTable {
+
+    /**
+     * Where the characters are looked up from.
+     */
+    interface Source {
+
+        char charAt(int position);
+
+        String substring(int start, int end);
+    }
+
+    /**
+     * Garbage input could otherwise grow the table without bound.
+     */
+    private static final int MAX_SYMBOLS = 4096;
+
+    private String[] symbols = new String[64];
+
+    private int size;
+
+    String lookup(Source source, int start, int end) {
+        int length = end - start;
+        int hash = 0;
+        for (int i = start; i < end; ++i) {
+            hash = 31 * hash + source.charAt(i);
+        }
+
+        int mask = symbols.length - 1;
+        int slot = spread(hash) & mask;
+        for (String symbol = symbols[slot]; symbol != null; symbol = symbols[slot]) {
+            if (symbol.hashCode() == hash && matches(symbol, source, start, length)) {
+                return symbol;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        String symbol = source.substring(start, end).intern();
+        // a symbol that doesn't read back the same as the widened bytes would never be found again
+        if (size < MAX_SYMBOLS && symbol.hashCode() == hash && matches(symbol, source, start, length)) {
+            symbols[slot] = symbol;
+            if (++size << 1 > symbols.length) {
+                rehash();
+            }
+        }
+        return symbol;
+    }
+
+    private static boolean matches(String symbol, Source source, int start, int length) {
+        if (symbol.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (symbol.charAt(i) != source.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        String[] old = symbols;
+        symbols = new String[old.length << 1];
+        int mask = symbols.length - 1;
+        for (String symbol : old) {
+            if (symbol != null) {
+                int slot = spread(symbol.hashCode()) & mask;
+                while (symbols[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                symbols[slot] = symbol;
+            }
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
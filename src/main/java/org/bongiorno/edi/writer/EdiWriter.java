@@ -1,5 +1,6 @@
 package org.bongiorno.edi.writer;
 
+import org.bongiorno.edi.reader.tokenizer.ByteSegmentScanner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.Attributes;
@@ -10,6 +11,7 @@ import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Deque;
 import java.util.LinkedList;
 
@@ -18,6 +20,14 @@ public class EdiWriter extends DefaultHandler {
 
     private Charset encoding = Charset.defaultCharset();
 
+    /**
+     * chars below this encode to the same value as a single byte, so they can just be narrowed
+     */
+    private final char narrowLimit = StandardCharsets.ISO_8859_1.equals(encoding) ? '\u0100'
+            : ByteSegmentScanner.isAsciiCompatible(encoding) ? '\u0080' : 0;
+
+    private byte[] scratch = new byte[256];
+
     private byte[] segmentDelimiter;
 
     private byte[] elementDelimiter;
@@ -339,12 +349,20 @@ public class EdiWriter extends DefaultHandler {
 //            }
 //        };
 
-    private void emitChars(String chars) throws IOException {
-        this.emitChars(CharBuffer.wrap(chars));
-    }
-
-    private void emitChars(CharBuffer chars) throws IOException {
-        ByteBuffer bytes = encoding.encode(chars);
-        out.write(bytes.array(), bytes.arrayOffset(), bytes.remaining());
+    private void emitChars(CharSequence chars) throws IOException {
+        int length = chars.length();
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length << 1)];
+        }
+        for (int i = 0; i < length; ++i) {
+            char c = chars.charAt(i);
+            if (c >= narrowLimit) {
+                ByteBuffer bytes = encoding.encode(CharBuffer.wrap(chars));
+                out.write(bytes.array(), bytes.arrayOffset(), bytes.remaining());
+                return;
+            }
+            scratch[i] = (byte) c;
+        }
+        out.write(scratch, 0, length);
     }
 }
@@ -0,0 +1,297 @@
+package org.bongiorno.edi.writer;
+
+import org.bongiorno.edi.reader.loops.EdiStructure;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Writes the events of an EdiReader out as JSON in one pass, the way xml-to-json.xslt lays it out: an element with
+ * children or attributes becomes an object, one with only text a string, and a run of siblings with the same name an
+ * array.
+ * <p>
+ * The stylesheet looks at each element's following siblings to spot runs, which needs the whole tree. Here the loop
+ * structure says what can be big: the envelope segments ISA, GS and ST, and the loops, are written as they're read and
+ * always as arrays, since any of them can repeat. Everything else is a segment or part of one, so it's held until the
+ * next sibling shows whether it starts a run. Nothing bigger than a segment is ever held.
+ */
+public class JsonWriter extends DefaultHandler {
+
+    private static final int FLUSH_SIZE = 8192;
+
+    private final Writer writer;
+
+    private final Set<String> containers;
+
+    /**
+     * what's been written to the top level, flushed to the writer as it fills
+     */
+    private final StringBuilder out = new StringBuilder(FLUSH_SIZE << 1);
+
+    /**
+     * reused for each depth of the document
+     */
+    private Level[] levels = new Level[16];
+
+    private int depth;
+
+    public JsonWriter(Writer writer, EdiStructure structure) {
+        this.writer = writer;
+        this.containers = new HashSet<>(structure.getTransitionTable().getLoopElementNames());
+        containers.add("ISA");
+        containers.add("GS");
+        containers.add("ST");
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        out.setLength(0);
+        depth = 0;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+        flush(false);
+        Level parent = depth == 0 ? null : levels[depth - 1];
+        boolean streamed = parent == null || containers.contains(qName);
+        if (parent == null) {
+            out.append("{\"");
+            escape(out, qName);
+            out.append("\" : ");
+        } else {
+            parent.startChild(qName, streamed);
+        }
+
+        if (depth == levels.length) {
+            Level[] grown = new Level[depth << 1];
+            System.arraycopy(levels, 0, grown, 0, depth);
+            levels = grown;
+        }
+        Level level = levels[depth];
+        if (level == null) {
+            level = levels[depth] = new Level();
+        }
+        ++depth;
+        level.start(qName, streamed ? out : null);
+        if (streamed || attributes.getLength() > 0) {
+            level.openObject();
+        }
+        for (int i = 0; i < attributes.getLength(); ++i) {
+            level.member(attributes.getQName(i));
+            string(level.sink, attributes.getValue(i));
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (depth > 0) {
+            levels[depth - 1].text.append(ch, start, length);
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        Level level = levels[--depth];
+        level.finishRun();
+        if (level.sink == out) {
+            out.append('}');
+            if (depth == 0) {
+                out.append('}');
+            }
+            flush(false);
+            return;
+        }
+        if (level.objectOpen) {
+            if (level.text.length() > 0) {
+                level.member("text");
+                string(level.sink, level.text);
+            }
+            level.sink.append('}');
+        } else {
+            string(level.sink, level.text);
+        }
+        levels[depth - 1].completeChild(level.sink);
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        flush(true);
+    }
+
+    private void flush(boolean force) throws SAXException {
+        if (force || out.length() >= FLUSH_SIZE) {
+            try {
+                writer.append(out);
+                if (force) {
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+            out.setLength(0);
+        }
+    }
+
+    private static void string(StringBuilder sink, CharSequence value) {
+        sink.append('"');
+        escape(sink, value);
+        sink.append('"');
+    }
+
+    private static void escape(StringBuilder sink, CharSequence value) {
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sink.append("\\\"");
+                    break;
+                case '\\':
+                    sink.append("\\\\");
+                    break;
+                case '\n':
+                    sink.append("\\n");
+                    break;
+                case '\r':
+                    sink.append("\\r");
+                    break;
+                case '\t':
+                    sink.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sink.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sink.append(c);
+                    }
+            }
+        }
+    }
+
+    /**
+     * An open element. Its members go to its sink, which for a streamed element is the output itself and otherwise the
+     * element's own buffer.
+     */
+    private static final class Level {
+
+        private final StringBuilder value = new StringBuilder();
+
+        private final StringBuilder text = new StringBuilder();
+
+        private StringBuilder sink;
+
+        private boolean objectOpen;
+
+        private boolean needComma;
+
+        /**
+         * the name of the last child, whose array may still be open
+         */
+        private String runName;
+
+        private boolean runOpen;
+
+        private int runItems;
+
+        /**
+         * the last held child, written once it's known whether the next one repeats it
+         */
+        private final StringBuilder pending = new StringBuilder();
+
+        private boolean hasPending;
+
+        void start(String name, StringBuilder out) {
+            sink = out == null ? value : out;
+            value.setLength(0);
+            text.setLength(0);
+            objectOpen = false;
+            needComma = false;
+            runName = null;
+            runOpen = false;
+            hasPending = false;
+        }
+
+        void openObject() {
+            if (!objectOpen) {
+                sink.append('{');
+                objectOpen = true;
+            }
+        }
+
+        void member(String name) {
+            if (needComma) {
+                sink.append(", ");
+            }
+            needComma = true;
+            sink.append('"');
+            escape(sink, name);
+            sink.append("\" : ");
+        }
+
+        void startChild(String name, boolean streamed) {
+            openObject();
+            if (name.equals(runName)) {
+                if (!runOpen) {
+                    member(runName);
+                    sink.append('[');
+                    runOpen = true;
+                    runItems = 0;
+                }
+                writePending();
+            } else {
+                finishRun();
+                runName = name;
+                if (streamed) {
+                    member(name);
+                    sink.append('[');
+                    runOpen = true;
+                    runItems = 0;
+                }
+            }
+            if (streamed) {
+                item();
+            }
+        }
+
+        void completeChild(StringBuilder child) {
+            pending.setLength(0);
+            pending.append(child);
+            hasPending = true;
+        }
+
+        void finishRun() {
+            if (hasPending) {
+                if (runOpen) {
+                    writePending();
+                } else {
+                    member(runName);
+                    sink.append(pending);
+                    hasPending = false;
+                }
+            }
+            if (runOpen) {
+                sink.append(']');
+                runOpen = false;
+            }
+            runName = null;
+        }
+
+        private void writePending() {
+            if (hasPending) {
+                item();
+                sink.append(pending);
+                hasPending = false;
+            }
+        }
+
+        private void item() {
+            if (runItems++ > 0) {
+                sink.append(", ");
+            }
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package org.bongiorno.edi.writer;
+
+import org.bongiorno.edi.reader.ResumableHandler;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Serializes the events of an EdiReader as UTF-8 XML, straight into a reused byte buffer, with no Transformer and no
+ * tree in between. Indented output is laid out the way the Saxon identity transform lays it out, down to where long
+ * attribute lists wrap, so it can stand in for identity.xslt. Not thread safe; reusable for any number of documents.
+ * <p>
+ * A parse resumed from a checkpoint picks up the output where the checkpoint left it, once the output has been cut back
+ * to {@link #outputLength(byte[])} bytes.
+ */
+public class XmlWriter extends DefaultHandler implements ResumableHandler {
+
+    private static final byte[] DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>".getBytes();
+
+    /**
+     * attribute lists longer than this wrap when indenting
+     */
+    private static final int ATTRIBUTE_LINE = 80;
+
+    private final OutputStream out;
+
+    private final byte[] buffer;
+
+    private int position;
+
+    /**
+     * bytes handed to out so far
+     */
+    private long written;
+
+    private int indent = 3;
+
+    private int depth;
+
+    /**
+     * the last start tag is still waiting for its '>', which becomes "/>" if the element turns out to be empty
+     */
+    private boolean startTagOpen;
+
+    /**
+     * the last thing written was a tag rather than text, so the next tag goes on a line of its own
+     */
+    private boolean afterTag;
+
+    private boolean afterEndTag;
+
+    public XmlWriter(OutputStream out) {
+        this(out, 1 << 16);
+    }
+
+    public XmlWriter(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.buffer = new byte[Math.max(bufferSize, 16)];
+    }
+
+    /**
+     * @param indent spaces per level, 0 to write everything on one line. 3 by default.
+     */
+    public void setIndent(int indent) {
+        this.indent = indent;
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        position = 0;
+        written = 0;
+        depth = 0;
+        startTagOpen = false;
+        afterTag = false;
+        afterEndTag = false;
+        write(DECLARATION);
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+        closeStartTag();
+        if (indent > 0 && (afterTag || depth == 0)) {
+            newLine(depth * indent);
+        }
+        ++depth;
+        write('<');
+        writeName(qName);
+        int attributeLength = 0;
+        for (int i = 0; i < attributes.getLength(); ++i) {
+            String name = attributes.getQName(i);
+            String value = attributes.getValue(i);
+            int length = name.length() + value.length() + 4;
+            if (indent > 0 && attributeLength > 0 && attributeLength + length > ATTRIBUTE_LINE) {
+                // lined up under the first attribute
+                newLine((depth - 1) * indent + qName.length() + 2);
+            } else {
+                write(' ');
+            }
+            attributeLength += length;
+            writeName(name);
+            write('=');
+            write('"');
+            escape(value, 0, value.length(), true);
+            write('"');
+        }
+        startTagOpen = true;
+        afterTag = true;
+        afterEndTag = false;
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        if (length == 0) {
+            return;
+        }
+        closeStartTag();
+        escape(ch, start, length);
+        afterTag = false;
+        afterEndTag = false;
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        --depth;
+        if (startTagOpen) {
+            write('/');
+            write('>');
+            startTagOpen = false;
+        } else {
+            if (indent > 0 && afterEndTag) {
+                newLine(depth * indent);
+            }
+            write('<');
+            write('/');
+            writeName(qName);
+            write('>');
+        }
+        afterTag = true;
+        afterEndTag = true;
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        flush();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    /**
+     * Writes out everything buffered.
+     */
+    @Override
+    public byte[] checkpoint() throws SAXException {
+        endDocument();
+        return ByteBuffer.allocate(15).putLong(written).putInt(depth)
+                .put((byte) (startTagOpen ? 1 : 0)).put((byte) (afterTag ? 1 : 0)).put((byte) (afterEndTag ? 1 : 0))
+                .array();
+    }
+
+    @Override
+    public void resume(byte[] state) throws SAXException {
+        ByteBuffer buffer = ByteBuffer.wrap(state);
+        position = 0;
+        written = buffer.getLong();
+        depth = buffer.getInt();
+        startTagOpen = buffer.get() != 0;
+        afterTag = buffer.get() != 0;
+        afterEndTag = buffer.get() != 0;
+    }
+
+    /**
+     * @param state what {@link #checkpoint()} returned
+     * @return how much of the output had been written at the checkpoint; anything after that has to go before resuming
+     */
+    public static long outputLength(byte[] state) {
+        return ByteBuffer.wrap(state).getLong();
+    }
+
+    private void closeStartTag() throws SAXException {
+        if (startTagOpen) {
+            write('>');
+            startTagOpen = false;
+        }
+    }
+
+    private void newLine(int spaces) throws SAXException {
+        write('\n');
+        for (int i = 0; i < spaces; ++i) {
+            write(' ');
+        }
+    }
+
+    private void writeName(String name) throws SAXException {
+        escape(name, 0, name.length(), false);
+    }
+
+    private void escape(char[] ch, int start, int length) throws SAXException {
+        for (int i = start, end = start + length; i < end; ++i) {
+            char c = ch[i];
+            if (c < 0x80 && c != '&' && c != '<' && c != '>' && c != '\r') {
+                write(c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < end) {
+                writeCodePoint(Character.toCodePoint(c, ch[++i]));
+            } else {
+                escapeChar(c, false);
+            }
+        }
+    }
+
+    private void escape(String value, int start, int end, boolean attribute) throws SAXException {
+        for (int i = start; i < end; ++i) {
+            char c = value.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < end) {
+                writeCodePoint(Character.toCodePoint(c, value.charAt(++i)));
+            } else {
+                escapeChar(c, attribute);
+            }
+        }
+    }
+
+    /**
+     * Writes a char that isn't half of a surrogate pair, escaped as need be.
+     */
+    private void escapeChar(char c, boolean attribute) throws SAXException {
+        switch (c) {
+            case '&':
+                write("&amp;");
+                break;
+            case '<':
+                write("&lt;");
+                break;
+            case '>':
+                write("&gt;");
+                break;
+            case '\r':
+                write("&#xD;");
+                break;
+            case '"':
+                write(attribute ? "&quot;" : "\"");
+                break;
+            case '\n':
+                write(attribute ? "&#xA;" : "\n");
+                break;
+            case '\t':
+                write(attribute ? "&#x9;" : "\t");
+                break;
+            default:
+                // a lone surrogate can't be encoded
+                if (!Character.isSurrogate(c)) {
+                    writeCodePoint(c);
+                }
+        }
+    }
+
+    private void writeCodePoint(int c) throws SAXException {
+        if (c < 0x80) {
+            write(c);
+        } else if (c < 0x800) {
+            write(0xC0 | c >> 6);
+            write(0x80 | c & 0x3F);
+        } else if (c < 0x10000) {
+            write(0xE0 | c >> 12);
+            write(0x80 | c >> 6 & 0x3F);
+            write(0x80 | c & 0x3F);
+        } else {
+            write(0xF0 | c >> 18);
+            write(0x80 | c >> 12 & 0x3F);
+            write(0x80 | c >> 6 & 0x3F);
+            write(0x80 | c & 0x3F);
+        }
+    }
+
+    private void write(String ascii) throws SAXException {
+        for (int i = 0; i < ascii.length(); ++i) {
+            write(ascii.charAt(i));
+        }
+    }
+
+    private void write(byte[] bytes) throws SAXException {
+        for (byte b : bytes) {
+            write(b);
+        }
+    }
+
+    private void write(int b) throws SAXException {
+        if (position == buffer.length) {
+            flush();
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    private void flush() throws SAXException {
+        try {
+            out.write(buffer, 0, position);
+        } catch (IOException e) {
+            throw new SAXException(e);
+        }
+        written += position;
+        position = 0;
+    }
+}
@@ -0,0 +1,86 @@
+package org.bongiorno.edi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EdiBatchTest {
+
+    private Path dir;
+
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("batch");
+        Files.createDirectories(dir.resolve("in/nested"));
+        Files.write(dir.resolve("in/small.dat"), new byte[10]);
+        Files.write(dir.resolve("in/big.dat"), new byte[1000]);
+        Files.write(dir.resolve("in/notes.txt"), new byte[10]);
+        Files.write(dir.resolve("in/nested/deep.dat"), new byte[10]);
+        pool = new ForkJoinPool(2);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Collections.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testInputs() throws IOException {
+        assertEquals(names("in/big.dat", "in/notes.txt", "in/small.dat"), names(EdiBatch.of(dir.resolve("in").toString())));
+        assertEquals(names("in/big.dat", "in/small.dat"), names(EdiBatch.of(dir.resolve("in") + "/*.dat")));
+        assertEquals(names("in/big.dat", "in/nested/deep.dat", "in/small.dat"), names(EdiBatch.of(dir.resolve("in") + "/**.dat")));
+    }
+
+    @Test
+    public void testRun() throws IOException {
+        Path out = dir.resolve("out");
+        Set<Path> parallel = ConcurrentHashMap.newKeySet();
+        int failed = EdiBatch.of(dir.resolve("in") + "/**.dat").run(pool, out, "xml", (in, result, filePool) -> {
+            if (in.endsWith("small.dat")) {
+                throw new IOException("not EDI");
+            }
+            if (filePool != null) {
+                parallel.add(in.getFileName());
+            }
+            Files.copy(in, result);
+        });
+
+        assertEquals(1, failed);
+        assertTrue(Files.exists(out.resolve("big.xml")));
+        assertTrue(Files.exists(out.resolve("nested/deep.xml")));
+        assertFalse(Files.exists(out.resolve("small.xml")));
+        // only the file bigger than its share of the batch parses on the pool too
+        assertEquals(Collections.singleton(dir.getFileSystem().getPath("big.dat")), parallel);
+    }
+
+    private List<String> names(EdiBatch batch) {
+        return batch.getInputs().stream().map(path -> dir.relativize(path).toString().replace('\\', '/')).sorted().collect(Collectors.toList());
+    }
+
+    private static List<String> names(String... names) {
+        return Arrays.asList(names);
+    }
+}
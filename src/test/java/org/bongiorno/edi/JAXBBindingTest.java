@@ -1,12 +1,33 @@
 package org.bongiorno.edi;
 
+import org.bongiorno.edi.factory.EdiJaxbContext;
 import org.bongiorno.edi.factory.EdiUnmarshaller;
+import org.bongiorno.edi.factory.EdiUnmarshallerPool;
+import org.bongiorno.edi.reader.EdiReader;
+import org.bongiorno.edi.reader.loops.StructureRegistry;
+import org.bongiorno.edi.reader.tokenizer.EDITokenizer;
 import org.junit.Test;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
 
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author chribong
@@ -38,6 +59,42 @@ public class JAXBBindingTest {
 
     }
 
+    @Test
+    public void testPoolReusesUnmarshallers() throws Exception {
+        EdiUnmarshallerPool pool = new EdiUnmarshallerPool(EdiJaxbContext.newInstance(Document837.class), 2);
+        Unmarshaller first = pool.borrow();
+        assertTrue(first instanceof EdiUnmarshaller);
+        pool.release(first);
+        assertSame(first, pool.borrow());
+        Unmarshaller second = pool.borrow();
+        assertNotSame(first, second);
+        // reader setup is done once per context
+        assertSame(((EdiUnmarshaller) first).getReaderConfig(), ((EdiUnmarshaller) second).getReaderConfig());
+    }
+
+    @Test
+    public void testUnmarshalLoops() throws Exception {
+        Path file = Paths.get(getClass().getResource("/837/837I_TC3.dat").toURI());
+        List<String> expected;
+        try (Stream<Element> loops = new EdiReader("edi837", StructureRegistry.get("edi837")).stream(EDITokenizer.open(file), "Loop2300")) {
+            expected = loops.map(loop -> loop.getElementsByTagName("CLM01").item(0).getTextContent()).collect(Collectors.toList());
+        }
+
+        EdiUnmarshaller um = (EdiUnmarshaller) EdiJaxbContext.newInstance(Document837.class, Claim.class).createUnmarshaller();
+        List<String> claims = new ArrayList<>();
+        List<String> transactionSets = new ArrayList<>();
+        um.unmarshalLoops(new InputSource(file.toString()), "Loop2300", Claim.class, (claim, context) -> {
+            claims.add(claim.clm.id);
+            // the context has the envelope, but only the current transaction set and none of the claims
+            assertEquals(1, context.getElementsByTagName("ST").getLength());
+            assertEquals(0, context.getElementsByTagName("Loop2300").getLength());
+            transactionSets.add(context.getElementsByTagName("ST02").item(0).getTextContent());
+        });
+        assertEquals(expected, claims);
+        assertEquals("46756", transactionSets.get(0));
+        assertNotEquals("46756", transactionSets.get(transactionSets.size() - 1));
+    }
+
     @XmlRootElement
     private static class Foo {
 
@@ -47,4 +104,17 @@ public class JAXBBindingTest {
     private static class Document837 {
 
     }
+
+    @XmlRootElement(name = "Loop2300")
+    @XmlAccessorType(XmlAccessType.FIELD)
+    private static class Claim {
+        @XmlElement(name = "CLM")
+        Clm clm;
+    }
+
+    @XmlAccessorType(XmlAccessType.FIELD)
+    private static class Clm {
+        @XmlElement(name = "CLM01")
+        String id;
+    }
 }
@@ -0,0 +1,102 @@
+package org.bongiorno.edi.benchmark;
+
+import org.bongiorno.edi.reader.tokenizer.CompositeElement;
+import org.bongiorno.edi.reader.tokenizer.EDITokenizer;
+import org.bongiorno.edi.reader.tokenizer.Element;
+import org.bongiorno.edi.reader.tokenizer.RepeatingElement;
+
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Bytes allocated per segment when tokenizing the 837 samples into Elements, comparing the old eager regex split of
+ * every composite and repetition against lazy decomposition.
+ * <p>
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.bongiorno.edi.benchmark.ElementAllocationBenchmark
+ */
+public class ElementAllocationBenchmark {
+
+    private static final String[] SAMPLES = {"/837/837i.dat", "/837/837I_TC3.dat"};
+
+    private static final int WARMUP = 2000;
+
+    private static final int ITERATIONS = 5000;
+
+    private enum Mode {
+        /**
+         * what Element.create used to do: split every composite and repetition up front, with a regex
+         */
+        EAGER_REGEX,
+        /**
+         * nobody looks at the parts, which is the common case
+         */
+        LAZY_UNTOUCHED,
+        /**
+         * every composite and repetition gets asked for its parts anyway
+         */
+        LAZY_ACCESSED
+    }
+
+    public static void main(String[] args) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        for (String sample : SAMPLES) {
+            byte[] data = Resources.read(sample);
+            System.out.println(sample);
+            for (Mode mode : Mode.values()) {
+                run(data, mode, WARMUP);
+                long before = threads.getThreadAllocatedBytes(thread);
+                long start = System.nanoTime();
+                long segments = run(data, mode, ITERATIONS);
+                long elapsed = System.nanoTime() - start;
+                long allocated = threads.getThreadAllocatedBytes(thread) - before;
+                System.out.printf("  %-15s %8d bytes/segment %8d ns/segment%n", mode, allocated / segments, elapsed / segments);
+            }
+        }
+    }
+
+    private static long run(byte[] data, Mode mode, int iterations) throws Exception {
+        long segments = 0;
+        long sink = 0;
+        for (int i = 0; i < iterations; ++i) {
+            EDITokenizer tokenizer = new EDITokenizer(new InputStreamReader(Resources.stream(data), StandardCharsets.ISO_8859_1));
+            String composite = Pattern.quote(tokenizer.getCompositeDelimiter().toString());
+            String repetition = Pattern.quote(tokenizer.getRepetitionSeparator().toString());
+            for (List<Element> segment : tokenizer) {
+                ++segments;
+                for (Element element : segment) {
+                    sink += decompose(element, mode, composite, repetition);
+                }
+            }
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+        return segments;
+    }
+
+    private static int decompose(Element element, Mode mode, String composite, String repetition) {
+        switch (mode) {
+            case EAGER_REGEX:
+                if (element instanceof RepeatingElement) {
+                    int count = 0;
+                    for (String repeat : element.toString().split(repetition, -1)) {
+                        count += repeat.split(composite, -1).length;
+                    }
+                    return count;
+                }
+                return element instanceof CompositeElement ? element.toString().split(composite, -1).length : 0;
+            case LAZY_ACCESSED:
+                if (element instanceof RepeatingElement) {
+                    return ((RepeatingElement) element).getElements().size();
+                }
+                return element instanceof CompositeElement ? ((CompositeElement) element).getParts().size() : 0;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.bongiorno.edi.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+final class Resources {
+
+    private Resources() {
+    }
+
+    static byte[] read(String resource) throws IOException {
+        try (InputStream in = Resources.class.getResourceAsStream(resource)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    static InputStream stream(byte[] data) {
+        return new ByteArrayInputStream(data);
+    }
+}
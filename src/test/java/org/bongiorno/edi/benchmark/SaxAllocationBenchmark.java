@@ -0,0 +1,61 @@
+package org.bongiorno.edi.benchmark;
+
+import org.bongiorno.edi.reader.EdiReader;
+import org.bongiorno.edi.reader.loops.StructureRegistry;
+import org.bongiorno.edi.reader.tokenizer.EDITokenizer;
+import org.bongiorno.edi.reader.tokenizer.StreamSegmentScanner;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bytes allocated per segment by EdiReader turning the 837 samples into SAX events, with a handler that ignores them.
+ * One reader is reused throughout, and each document is scanned from a buffer it fits in, so what's left is the cost
+ * of tokenizing and emitting.
+ * <p>
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.bongiorno.edi.benchmark.SaxAllocationBenchmark
+ */
+public class SaxAllocationBenchmark {
+
+    private static final String[] SAMPLES = {"/837/837i.dat", "/837/837I_TC3.dat"};
+
+    private static final int WARMUP = 2000;
+
+    private static final int ITERATIONS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        EdiReader reader = new EdiReader("edi837", StructureRegistry.get("edi837"));
+        reader.setContentHandler(new DefaultHandler());
+        for (String sample : SAMPLES) {
+            byte[] data = Resources.read(sample);
+            run(reader, data, WARMUP);
+            long before = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            run(reader, data, ITERATIONS);
+            long elapsed = System.nanoTime() - start;
+            long allocated = threads.getThreadAllocatedBytes(thread) - before;
+            long segments = (long) segments(data) * ITERATIONS;
+            System.out.printf("%-20s %8d bytes/segment %8d ns/segment%n", sample, allocated / segments, elapsed / segments);
+        }
+    }
+
+    private static void run(EdiReader reader, byte[] data, int iterations) throws Exception {
+        for (int i = 0; i < iterations; ++i) {
+            reader.parse(new EDITokenizer(new StreamSegmentScanner(Resources.stream(data), StandardCharsets.ISO_8859_1, data.length)));
+        }
+    }
+
+    private static int segments(byte[] data) throws Exception {
+        int segments = 0;
+        try (EDITokenizer tokenizer = new EDITokenizer(Resources.stream(data), StandardCharsets.ISO_8859_1)) {
+            for (; tokenizer.hasNext(); tokenizer.nextRaw()) {
+                ++segments;
+            }
+        }
+        return segments;
+    }
+}
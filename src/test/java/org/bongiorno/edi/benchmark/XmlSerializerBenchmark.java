@@ -0,0 +1,75 @@
+package org.bongiorno.edi.benchmark;
+
+import org.bongiorno.edi.reader.EdiReader;
+import org.bongiorno.edi.reader.loops.StructureRegistry;
+import org.bongiorno.edi.writer.XmlWriter;
+import org.xml.sax.InputSource;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.OutputStream;
+
+/**
+ * Throughput of turning the 837 samples into indented XML, through the Saxon identity transform EdiToXml used to run
+ * and through XmlWriter. Output goes nowhere, so what's measured is parsing plus serializing. The transform's
+ * stylesheet is compiled once up front, which flatters it: EdiToXml compiled it on every run.
+ * <p>
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.bongiorno.edi.benchmark.XmlSerializerBenchmark
+ */
+public class XmlSerializerBenchmark {
+
+    private static final String[] SAMPLES = {"/837/837i.dat", "/837/837I_TC3.dat"};
+
+    private static final int WARMUP = 1000;
+
+    private static final int ITERATIONS = 3000;
+
+    private static final OutputStream NOWHERE = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        Templates identity = TransformerFactory.newInstance("net.sf.saxon.TransformerFactoryImpl", null)
+                .newTemplates(new StreamSource(XmlSerializerBenchmark.class.getResourceAsStream("/identity.xslt")));
+        EdiReader reader = new EdiReader("edi837", StructureRegistry.get("edi837"));
+        XmlWriter writer = new XmlWriter(NOWHERE);
+
+        for (String sample : SAMPLES) {
+            byte[] data = Resources.read(sample);
+            Run transform = () -> identity.newTransformer().transform(new SAXSource(reader, new InputSource(Resources.stream(data))),
+                    new StreamResult(NOWHERE));
+            Run direct = () -> {
+                reader.setContentHandler(writer);
+                reader.parse(new InputSource(Resources.stream(data)));
+            };
+            report(sample, "transformer", data, transform);
+            report(sample, "XmlWriter", data, direct);
+        }
+    }
+
+    private static void report(String sample, String name, byte[] data, Run run) throws Exception {
+        for (int i = 0; i < WARMUP; ++i) {
+            run.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            run.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        double megabytes = (double) data.length * ITERATIONS / (1 << 20);
+        System.out.printf("%-20s %-12s %8.1f MB/s of EDI%n", sample, name, megabytes / (elapsed / 1e9));
+    }
+
+    private interface Run {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,201 @@
+package org.bongiorno.edi.factory;
+
+import org.bongiorno.edi.reader.EdiReader;
+import org.bongiorno.edi.reader.loops.StructureRegistry;
+import org.bongiorno.edi.reader.tokenizer.EDITokenizer;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.bind.JAXBException;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class EdiBindingContextTest {
+
+    @Test
+    public void testBindsWhatTheReaderEmits() throws Exception {
+        String[][] files = {{"/837/837I_TC3.dat", "00401"}, {"/837/837i.dat", "00501"}};
+        for (String[] test : files) {
+            Path file = Paths.get(getClass().getResource(test[0]).toURI());
+            List<Element> expected;
+            try (Stream<Element> loops = new EdiReader("edi837", StructureRegistry.get("edi837")).stream(EDITokenizer.open(file), "Loop2300")) {
+                expected = loops.collect(Collectors.toList());
+            }
+
+            Interchange interchange = EdiBindingContext.newInstance(Document.class, "edi837").unmarshal(file).interchange;
+            assertEquals(test[1], interchange.version);
+            assertEquals(1, interchange.groups.size());
+            List<Claim> claims = new ArrayList<>();
+            for (TransactionSet transactionSet : interchange.groups.get(0).transactionSets) {
+                transactionSet.subscribers.forEach(subscriber -> claims.addAll(subscriber.claims));
+                transactionSet.patients.forEach(patient -> claims.addAll(patient.claims));
+            }
+
+            assertEquals(expected.size(), claims.size());
+            for (int i = 0; i < claims.size(); ++i) {
+                Element loop = expected.get(i);
+                Claim claim = claims.get(i);
+                assertEquals(text(loop, "CLM01"), claim.clm.id);
+                assertEquals(new BigDecimal(text(loop, "CLM02")), claim.clm.amount);
+                assertEquals(text(loop, "C01"), claim.clm.facility);
+                assertEquals(children(loop, "DTP"), claim.dates.size());
+                assertEquals(text(loop, "DTP03"), claim.dates.get(0).period);
+            }
+        }
+    }
+
+    @Test
+    public void testUnboundEnvelopeIsTransparent() throws Exception {
+        Path file = Paths.get(getClass().getResource("/837/837I_TC3.dat").toURI());
+        Claims claims = EdiBindingContext.newInstance(Claims.class, "edi837").unmarshal(file);
+        // every transaction set's loops end up in the root
+        assertEquals(3, claims.patients.size());
+        assertEquals("3458798034", claims.patients.get(0).claims.get(0).clm.id);
+        // a field that isn't a list keeps the last one
+        assertEquals("Nells", claims.subscriber.subscriberName.name.last);
+        // the NM1 starts a loop of its own, and the root's NM1s are all in loops nobody binds
+        assertNull(claims.subscriber.name);
+        assertNull(claims.name);
+    }
+
+    @Test
+    public void testBindingFailureOutlivesCloseFailure() throws Exception {
+        Path file = Paths.get(getClass().getResource("/837/837I_TC3.dat").toURI());
+        String edi = new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1).replace("CLM*3458798034*4000", "CLM*3458798034*lots");
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(edi.getBytes(StandardCharsets.ISO_8859_1))) {
+            @Override
+            public void close() throws IOException {
+                throw new IOException("close failed");
+            }
+        };
+        try {
+            EdiBindingContext.newInstance(Claims.class, "edi837").unmarshal(in, StandardCharsets.ISO_8859_1);
+            fail();
+        } catch (JAXBException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("CLM2"));
+        }
+    }
+
+    @Test(expected = JAXBException.class)
+    public void testUnconvertibleField() throws Exception {
+        EdiBindingContext.newInstance(Unconvertible.class, "edi837");
+    }
+
+    /**
+     * @return the number of the loop's own segments with the id, not counting ones in nested loops
+     */
+    private static int children(Element loop, String id) {
+        int count = 0;
+        for (Node child = loop.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (id.equals(child.getNodeName())) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private static String text(Element loop, String name) {
+        return loop.getElementsByTagName(name).item(0).getTextContent();
+    }
+
+    private static class Document {
+        Interchange interchange;
+    }
+
+    @EdiSegment("ISA")
+    private static class Interchange {
+        @EdiElement(12)
+        String version;
+        List<Group> groups;
+    }
+
+    @EdiSegment("GS")
+    private static class Group {
+        List<TransactionSet> transactionSets;
+    }
+
+    @EdiSegment("ST")
+    private static class TransactionSet {
+        List<Subscriber> subscribers = new ArrayList<>();
+        List<Patient> patients = new ArrayList<>();
+    }
+
+    @EdiLoop("2000B")
+    private static class Subscriber {
+        List<Claim> claims = new ArrayList<>();
+    }
+
+    @EdiLoop("2010BA")
+    private static class SubscriberName {
+        Name name;
+    }
+
+    @EdiLoop("2000C")
+    private static class Patient {
+        List<Claim> claims = new ArrayList<>();
+    }
+
+    @EdiLoop("2300")
+    private static class Claim {
+        Clm clm;
+        List<Dtp> dates;
+    }
+
+    @EdiSegment("CLM")
+    private static class Clm {
+        @EdiElement(1)
+        String id;
+        @EdiElement(2)
+        BigDecimal amount;
+        @EdiElement(value = 5, component = 1)
+        String facility;
+    }
+
+    @EdiSegment("DTP")
+    private static class Dtp {
+        @EdiElement(3)
+        String period;
+    }
+
+    @EdiSegment("NM1")
+    private static class Name {
+        @EdiElement(3)
+        String last;
+    }
+
+    private static class Claims {
+        SubscriberWithName subscriber;
+        List<Patient> patients;
+        Name name;
+    }
+
+    @EdiLoop("2000B")
+    private static class SubscriberWithName {
+        SubscriberName subscriberName;
+        Name name;
+    }
+
+    private static class Unconvertible {
+        Bad bad;
+    }
+
+    @EdiSegment("CLM")
+    private static class Bad {
+        @EdiElement(1)
+        Object id;
+    }
+}
@@ -1,8 +1,481 @@
 package org.bongiorno.edi.reader;
 
+import org.bongiorno.edi.reader.loops.EdiStructure;
+import org.bongiorno.edi.reader.loops.StructureRegistry;
+import org.bongiorno.edi.reader.tokenizer.EDITokenizer;
+import org.bongiorno.edi.reader.tokenizer.PushTokenizer;
+import org.bongiorno.edi.writer.XmlWriter;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 import static org.junit.Assert.*;
 
 
 public class EdiReaderTest {
 
-}
\ No newline at end of file
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @AfterClass
+    public static void shutdown() {
+        POOL.shutdown();
+    }
+
+    @Test
+    public void testParallelMatchesSequential() throws Exception {
+        Path file = resource("/834/834-2Tx.dat");
+        assertEquals(parse("edi834", file, null), parse("edi834", file, POOL));
+    }
+
+    @Test
+    public void testParallelManyTransactions() throws Exception {
+        Path file = repeatTransactions(100, false);
+        try {
+            String sequential = parse("edi837", file, null);
+            assertEquals(sequential, parse("edi837", file, POOL));
+            assertTrue(sequential.endsWith("</ISA>\n</edi837>\n"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testParallelMissingSE() throws Exception {
+        Path file = repeatTransactions(50, true);
+        try {
+            assertEquals(parse("edi837", file, null), parse("edi837", file, POOL));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testPushMatchesPull() throws Exception {
+        Path file = resource("/834/834-2Tx.dat");
+        EdiReader reader = reader("edi834");
+        StringBuilder out = new StringBuilder();
+        reader.setContentHandler(recorder(out));
+        PushTokenizer tokenizer = reader.pushTokenizer(StandardCharsets.ISO_8859_1);
+        byte[] data = Files.readAllBytes(file);
+        for (int i = 0; i < data.length; i += 100) {
+            tokenizer.feed(ByteBuffer.wrap(data, i, Math.min(100, data.length - i)));
+        }
+        tokenizer.endOfInput();
+        assertEquals(parse("edi834", file, null), out.toString());
+    }
+
+    @Test
+    public void testStreamCompletedLoops() throws Exception {
+        Path file = resource("/837/837I_TC3.dat");
+        String sequential = parse("edi837", file, null);
+        List<org.w3c.dom.Element> claims;
+        try (Stream<org.w3c.dom.Element> loops = reader("edi837").stream(EDITokenizer.open(file), "Loop2300")) {
+            claims = loops.collect(Collectors.toList());
+        }
+        assertEquals(sequential.split("<Loop2300>", -1).length - 1, claims.size());
+        assertEquals("CLM", claims.get(0).getFirstChild().getNodeName());
+        assertEquals("CLM01", claims.get(0).getFirstChild().getFirstChild().getNodeName());
+    }
+
+    @Test
+    public void testXmlStreamReaderMatchesSax() throws Exception {
+        Path file = resource("/837/837I_TC3.dat");
+        XMLStreamReader xml = reader("edi837").xmlStreamReader(EDITokenizer.open(file));
+        StringBuilder out = new StringBuilder();
+        assertEquals(XMLStreamConstants.START_DOCUMENT, xml.getEventType());
+        while (xml.hasNext()) {
+            switch (xml.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    out.append('<').append(xml.getLocalName());
+                    for (int i = 0; i < xml.getAttributeCount(); ++i) {
+                        out.append(' ').append(xml.getAttributeLocalName(i)).append("=\"").append(xml.getAttributeValue(i)).append('"');
+                    }
+                    out.append('>');
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    out.append("</").append(xml.getLocalName()).append(">\n");
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                    out.append(xml.getTextCharacters(), xml.getTextStart(), xml.getTextLength());
+                    break;
+            }
+        }
+        xml.close();
+        assertEquals(parse("edi837", file, null), out.toString());
+    }
+
+    @Test
+    public void testXmlStreamReaderFragment() throws Exception {
+        Path file = resource("/837/837I_TC3.dat");
+        org.w3c.dom.Element expected;
+        try (Stream<org.w3c.dom.Element> loops = reader("edi837").stream(EDITokenizer.open(file), "Loop2300")) {
+            expected = loops.findFirst().get();
+        }
+
+        XMLStreamReader xml = reader("edi837").xmlStreamReader(EDITokenizer.open(file));
+        while (!(xml.next() == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("Loop2300"))) {
+            assertTrue(xml.hasNext());
+        }
+        DOMResult fragment = new DOMResult();
+        // Saxon, which is on the classpath, doesn't take StAX sources
+        TransformerFactory transformers = TransformerFactory.newInstance("com.sun.org.apache.xalan.internal.xsltc.trax.TransformerFactoryImpl", null);
+        transformers.newTransformer().transform(new StAXSource(xml), fragment);
+        // the two DOMs are built differently (with and without namespace awareness), so compare them as text
+        assertEquals(serialize(transformers, expected), serialize(transformers, fragment.getNode().getFirstChild()));
+        // the reader is left on the fragment's end tag, and the rest of the document can still be pulled
+        assertEquals("Loop2300", xml.getLocalName());
+        assertEquals(XMLStreamConstants.START_ELEMENT, xml.nextTag());
+        xml.close();
+    }
+
+    private static String serialize(TransformerFactory transformers, org.w3c.dom.Node node) throws Exception {
+        Transformer transformer = transformers.newTransformer();
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        StringWriter out = new StringWriter();
+        transformer.transform(new DOMSource(node), new StreamResult(out));
+        return out.toString();
+    }
+
+    @Test
+    public void testReuseAfterFailure() throws Exception {
+        Path file = resource("/837/837I_TC3.dat");
+        EdiReader reader = reader("edi837");
+        StringBuilder out = new StringBuilder();
+        reader.setContentHandler(new DefaultHandler() {
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+                if ("Loop2300".equals(qName)) {
+                    throw new SAXException("stop");
+                }
+            }
+        });
+        try {
+            reader.parse(new InputSource(file.toUri().toString()));
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals("stop", e.getCause().getMessage());
+        }
+        reader.setContentHandler(recorder(out));
+        reader.parse(new InputSource(file.toUri().toString()));
+        assertEquals(parse("edi837", file, null), out.toString());
+    }
+
+    @Test
+    public void testPool() throws Exception {
+        Path file = resource("/834/834-2Tx.dat");
+        EdiReaderPool pool = new EdiReaderPool(reader("edi834").getConfig(), 1);
+        EdiReader first = pool.borrow();
+        EdiReader second = pool.borrow();
+        assertNotSame(first, second);
+        assertSame(first.getConfig(), second.getConfig());
+        pool.release(first);
+        pool.release(second);
+        assertSame("only one reader is kept", first, pool.borrow());
+        pool.release(first);
+
+        StringBuilder out = new StringBuilder();
+        pool.parse(new InputSource(file.toUri().toString()), recorder(out));
+        String once = out.toString();
+        assertEquals(parse("edi834", file, null), once);
+        out.setLength(0);
+        pool.parse(new InputSource(file.toUri().toString()), recorder(out));
+        assertEquals(once, out.toString());
+        assertNull(pool.borrow().getContentHandler());
+    }
+
+    @Test
+    public void testAttributeDefinitions() throws Exception {
+        String loops = "<X12-Structure><Loop id='ROOT'/>"
+                + "<AttributeDefinition><name>CLM</name><position>1</position></AttributeDefinition>"
+                + "<AttributeDefinition><name>HI01</name><position>2</position></AttributeDefinition></X12-Structure>";
+        EdiReader reader = new EdiReader("test", EdiStructure.fromStream(new ByteArrayInputStream(loops.getBytes(StandardCharsets.US_ASCII))));
+        StringBuilder out = new StringBuilder();
+        reader.setContentHandler(recorder(out));
+        reader.parse(new StringReader("ISA*00*          *00*          *ZZ*SENDER         *ZZ*RECEIVER       *050101*0847*^*00501*000000001*1*P*:"
+                + "~CLM*A37*500~HI*BK:4019*BF:1234^BF:5678::X~"));
+
+        String events = out.toString();
+        assertTrue(events, events.contains("<CLM CLM01=\"A37\"><CLM02>500</CLM02>\n</CLM>\n"));
+        assertTrue(events, events.contains("<HI><HI01 C02=\"4019\"><C01>BK</C01>\n</HI01>\n"
+                + "<HI02><C01>BF</C01>\n<C02>1234</C02>\n</HI02>\n"
+                + "<HI02><C01>BF</C01>\n<C02>5678</C02>\n<C03></C03>\n<C04>X</C04>\n</HI02>\n</HI>\n"));
+    }
+
+    @Test
+    public void testProjectedSegments() throws Exception {
+        Path file = resource("/837/837I_TC3.dat");
+        String full = parse("edi837", file, null);
+        Projection projection = Projection.of("CLM", "Loop2400/SV2");
+        String projected = parse("edi837", file, null, projection);
+
+        assertEquals(matches(full, "<CLM>.*?</CLM>\n"), matches(projected, "<CLM>.*?</CLM>\n"));
+        assertEquals(matches(full, "<SV2>.*?</SV2>\n"), matches(projected, "<SV2>.*?</SV2>\n"));
+        assertEquals(matches(full, "<Loop2300>").size(), matches(projected, "<Loop2300>").size());
+        for (String tag : matches(projected, "<[A-Za-z0-9]+")) {
+            assertTrue(tag, tag.matches("<(edi837|ISA|GS|ST|Loop\\w+|CLM\\w*|SV2\\w*|C0\\d)"));
+        }
+        assertTrue("the envelope keeps its delimiters", projected.startsWith("<edi837><ISA segmentDelimiter="));
+        assertFalse("nothing projected in the submitter loop", projected.contains("<Loop1000A>"));
+
+        // the byte scanner skips segments, the char scanner splits them regardless, the parallel parse skips on workers
+        assertEquals(projected, parse("edi837", file, POOL, projection));
+        EdiReader reader = reader("edi837");
+        reader.setProjection(projection);
+        StringBuilder out = new StringBuilder();
+        reader.setContentHandler(recorder(out));
+        reader.parse(new StringReader(new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1)));
+        assertEquals(projected, out.toString());
+    }
+
+    @Test
+    public void testProjectedLoop() throws Exception {
+        Path file = resource("/837/837I_TC3.dat");
+        String full = parse("edi837", file, null);
+        String projected = parse("edi837", file, null, Projection.of("Loop2300", "ST"));
+        List<String> claims = matches(full, "<Loop2300>.*?</Loop2300>\n");
+        assertEquals(6, claims.size());
+        assertEquals(claims, matches(projected, "<Loop2300>.*?</Loop2300>\n"));
+        String transactionSet = "<ST>(<ST\\d+>[^<]*</ST\\d+>\n)+";
+        assertEquals(2, matches(projected, transactionSet).size());
+        assertEquals(matches(full, transactionSet), matches(projected, transactionSet));
+        assertFalse(projected.contains("<BHT>"));
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        Path file = resource("/837/837I_TC3.dat");
+        EdiStructure structure = StructureRegistry.get("edi837");
+        EdiIndex built = EdiIndex.build(file, StandardCharsets.ISO_8859_1, structure, Collections.singletonMap("Loop2300", 1));
+        Path sidecar = Files.createTempFile("837", EdiIndex.SUFFIX);
+        EdiIndex index;
+        try {
+            built.write(sidecar);
+            index = EdiIndex.read(sidecar);
+        } finally {
+            Files.delete(sidecar);
+        }
+        assertEquals(built.getEntries().toString(), index.getEntries().toString());
+        assertEquals(1 + 1 + 2 + 6, index.getEntries().size());
+        assertTrue(index.isCurrent(file));
+
+        String full = parse("edi837", file, null);
+        List<String> claims = matches(full, "<Loop2300>.*?</Loop2300>\n");
+        List<EdiIndex.Entry> found = index.find("Loop2300", "774933664");
+        assertEquals(2, found.size());
+        assertEquals("<edi837>" + claims.get(2) + "</edi837>\n", parse(file, index, found.get(0)));
+        assertEquals("<edi837>" + claims.get(3) + "</edi837>\n", parse(file, index, found.get(1)));
+
+        EdiIndex.Entry transactionSet = index.find("ST", "46758").get(0);
+        assertEquals("GS", index.getParent(transactionSet).getName());
+        assertSame(transactionSet, index.getParent(found.get(0)));
+        assertEquals("<edi837>" + matches(full, "<ST>.*?</ST>\n").get(1) + "</edi837>\n", parse(file, index, transactionSet));
+        assertEquals(full, parse(file, index, index.find("ISA", "294686727").get(0)));
+    }
+
+    @Test
+    public void testCheckpoints() throws Exception {
+        Path file = resource("/837/837I_TC3.dat");
+        InputSource input = new InputSource(file.toUri().toString());
+        input.setEncoding("ISO-8859-1");
+        String full = parse("edi837", file, null);
+        ByteArrayOutputStream fullXml = new ByteArrayOutputStream();
+        EdiReader reader = reader("edi837");
+        reader.setContentHandler(new XmlWriter(fullXml));
+        List<Checkpoint> checkpoints = new ArrayList<>();
+        reader.setCheckpoints(2000, checkpoints::add);
+        reader.parse(input);
+        assertTrue(checkpoints.size() > 3);
+        // still taken while resuming, which mustn't change the output
+        reader.setCheckpoints(2000, taken -> { });
+
+        Path saved = Files.createTempFile("837", ".checkpoint");
+        try {
+            for (Checkpoint taken : checkpoints) {
+                taken.write(saved);
+                Checkpoint checkpoint = Checkpoint.read(saved);
+                assertEquals(taken.getOffset(), checkpoint.getOffset());
+
+                // a resumable handler carries on the output where the checkpoint left it
+                ByteArrayOutputStream resumedXml = new ByteArrayOutputStream();
+                resumedXml.write(fullXml.toByteArray(), 0, (int) XmlWriter.outputLength(checkpoint.getHandlerState()));
+                reader.setContentHandler(new XmlWriter(resumedXml));
+                reader.resume(file, checkpoint);
+                assertArrayEquals(fullXml.toByteArray(), resumedXml.toByteArray());
+
+                // any other handler gets the open elements started again
+                StringBuilder resumed = new StringBuilder();
+                reader.setContentHandler(recorder(resumed));
+                reader.resume(file, checkpoint);
+                StringBuilder open = new StringBuilder();
+                DefaultHandler opener = recorder(open);
+                for (int i = 0; i < checkpoint.getDepth(); ++i) {
+                    String name = checkpoint.getElement(i);
+                    opener.startElement("", name, name, checkpoint.getAttributes(i));
+                }
+                assertTrue(resumed.toString().startsWith(open.toString()));
+                assertTrue(full.endsWith(resumed.substring(open.length())));
+            }
+        } finally {
+            Files.delete(saved);
+        }
+        Checkpoint last = checkpoints.get(checkpoints.size() - 1);
+        assertEquals(Arrays.asList("edi837", "ISA", "GS", "ST"),
+                Arrays.asList(last.getElement(0), last.getElement(1), last.getElement(2), last.getElement(3)));
+    }
+
+    @Test
+    public void testCheckpointOnlyResumesItsOwnParse() throws Exception {
+        Path file = Files.createTempFile("837", ".dat");
+        try {
+            Files.copy(resource("/837/837I_TC3.dat"), file, StandardCopyOption.REPLACE_EXISTING);
+            EdiReader reader = reader("edi837");
+            reader.setContentHandler(new DefaultHandler());
+            List<Checkpoint> checkpoints = new ArrayList<>();
+            reader.setCheckpoints(2000, checkpoints::add);
+            InputSource input = new InputSource(file.toUri().toString());
+            input.setEncoding("ISO-8859-1");
+            reader.parse(input);
+            Checkpoint checkpoint = checkpoints.get(0);
+            assertTrue(checkpoint.isCurrent(file));
+
+            reader.setProjection(Projection.of("CLM"));
+            try {
+                reader.resume(file, checkpoint);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+            reader.setProjection(null);
+
+            Files.write(file, "~".getBytes(StandardCharsets.ISO_8859_1), StandardOpenOption.APPEND);
+            assertFalse(checkpoint.isCurrent(file));
+            try {
+                reader.resume(file, checkpoint);
+                fail();
+            } catch (IOException expected) {
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static String parse(Path file, EdiIndex index, EdiIndex.Entry entry) throws Exception {
+        EdiReader reader = reader("edi837");
+        StringBuilder out = new StringBuilder();
+        reader.setContentHandler(recorder(out));
+        reader.parse(file, index, entry);
+        return out.toString();
+    }
+
+    private static List<String> matches(String events, String regex) {
+        List<String> result = new ArrayList<>();
+        Matcher matcher = Pattern.compile(regex, Pattern.DOTALL).matcher(events);
+        while (matcher.find()) {
+            result.add(matcher.group());
+        }
+        return result;
+    }
+
+    private static Path resource(String name) throws Exception {
+        URL url = EdiReaderTest.class.getResource(name);
+        return Paths.get(url.toURI());
+    }
+
+    /**
+     * Copies the transaction sets of the 837 sample n times inside one GS, optionally dropping one SE in the middle.
+     */
+    private static Path repeatTransactions(int n, boolean dropSE) throws Exception {
+        String edi = new String(Files.readAllBytes(resource("/837/837I_TC3.dat")), StandardCharsets.ISO_8859_1);
+        int st = edi.indexOf("~ST*") + 1;
+        int se = edi.indexOf('~', edi.lastIndexOf("~SE*") + 1) + 1;
+        StringBuilder result = new StringBuilder(edi.substring(0, st));
+        for (int i = 0; i < n; ++i) {
+            String transactions = edi.substring(st, se);
+            if (dropSE && i == n / 2) {
+                transactions = transactions.substring(0, transactions.lastIndexOf("SE*"));
+            }
+            result.append(transactions);
+        }
+        result.append(edi.substring(se));
+
+        Path file = File.createTempFile("parallel", ".dat").toPath();
+        Files.write(file, result.toString().getBytes(StandardCharsets.ISO_8859_1));
+        return file;
+    }
+
+    private static String parse(String root, Path file, ForkJoinPool pool) throws Exception {
+        return parse(root, file, pool, null);
+    }
+
+    private static String parse(String root, Path file, ForkJoinPool pool, Projection projection) throws Exception {
+        EdiReader reader = reader(root);
+        reader.setPool(pool);
+        reader.setProjection(projection);
+        StringBuilder out = new StringBuilder();
+        reader.setContentHandler(recorder(out));
+        reader.parse(new InputSource(file.toUri().toString()));
+        return out.toString();
+    }
+
+    private static EdiReader reader(String root) throws Exception {
+        return new EdiReader(root, StructureRegistry.get(root));
+    }
+
+    private static DefaultHandler recorder(StringBuilder out) {
+        return new DefaultHandler() {
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                out.append('<').append(qName);
+                for (int i = 0; i < attributes.getLength(); ++i) {
+                    out.append(' ').append(attributes.getQName(i)).append("=\"").append(attributes.getValue(i)).append('"');
+                }
+                out.append('>');
+            }
+
+            @Override
+            public void endElement(String uri, String localName, String qName) {
+                out.append("</").append(qName).append(">\n");
+            }
+
+            @Override
+            public void characters(char[] ch, int start, int length) {
+                out.append(ch, start, length);
+            }
+        };
+    }
+}
@@ -0,0 +1,92 @@
+package org.bongiorno.edi.reader;
+
+import org.bongiorno.edi.reader.loops.StructureRegistry;
+import org.bongiorno.edi.writer.XmlWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EdiSplitterTest {
+
+    private Path dir;
+
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("split");
+        file = Paths.get(EdiSplitterTest.class.getResource("/837/837I_TC3.dat").toURI());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Collections.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testOnePerTransactionSet() throws Exception {
+        String full = parse(file);
+        List<Path> pieces = EdiSplitter.split(file, StandardCharsets.ISO_8859_1, 1, dir);
+        assertEquals(2, pieces.size());
+        assertEquals(dir.resolve("837I_TC3-2.dat"), pieces.get(1));
+
+        List<String> transactionSets = matches(full, "<ST>.*?</ST>");
+        for (int i = 0; i < pieces.size(); ++i) {
+            String piece = parse(pieces.get(i));
+            assertEquals(Collections.singletonList(transactionSets.get(i)), matches(piece, "<ST>.*?</ST>"));
+            assertEquals(matches(full, "<ISA .*?<ST>"), matches(piece, "<ISA .*?<ST>"));
+            String edi = new String(Files.readAllBytes(pieces.get(i)), StandardCharsets.ISO_8859_1);
+            assertTrue(edi.endsWith("~GE*1*64223~IEA*1*294686727~"));
+        }
+    }
+
+    @Test
+    public void testWholeGroup() throws Exception {
+        List<Path> pieces = EdiSplitter.split(file, StandardCharsets.ISO_8859_1, 10, dir);
+        assertEquals(1, pieces.size());
+        assertEquals(parse(file), parse(pieces.get(0)));
+    }
+
+    private static String parse(Path file) throws Exception {
+        EdiReader reader = new EdiReader("edi837", StructureRegistry.get("edi837"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XmlWriter writer = new XmlWriter(out);
+        writer.setIndent(0);
+        reader.setContentHandler(writer);
+        InputSource input = new InputSource(file.toUri().toString());
+        input.setEncoding("ISO-8859-1");
+        reader.parse(input);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static List<String> matches(String xml, String regex) {
+        List<String> result = new ArrayList<>();
+        Matcher matcher = Pattern.compile(regex, Pattern.DOTALL).matcher(xml);
+        while (matcher.find()) {
+            result.add(matcher.group());
+        }
+        return result;
+    }
+}
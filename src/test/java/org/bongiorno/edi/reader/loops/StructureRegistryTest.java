@@ -0,0 +1,55 @@
+package org.bongiorno.edi.reader.loops;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class StructureRegistryTest {
+
+    @Test
+    public void testLoadsOnce() throws Exception {
+        EdiStructure structure = StructureRegistry.get("edi837");
+        assertSame(structure, StructureRegistry.get("edi837"));
+        assertSame(structure, StructureRegistry.get(getClass().getResource("/META-INF/loops/edi837.xml")));
+        assertNotSame(structure, StructureRegistry.get("edi835"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingDefinition() throws Exception {
+        StructureRegistry.get("edi999");
+    }
+
+    @Test
+    public void testFrozen() throws Exception {
+        EdiStructure structure = StructureRegistry.get("edi837");
+        Loop root = structure.getRootLoop();
+        assertUnmodifiable(() -> root.getChildren().clear());
+        assertUnmodifiable(() -> root.getChildren().get(0).getChildren().clear());
+        assertUnmodifiable(() -> structure.getAttributeDefinitions().clear());
+    }
+
+    @Test
+    public void testAttributePositions() throws Exception {
+        String xml = "<X12-Structure><Loop id='ROOT' name='ROOT'/>"
+                + "<AttributeDefinition><name>AMT</name><position>1</position></AttributeDefinition></X12-Structure>";
+        EdiStructure structure = EdiStructure.fromStream(new ByteArrayInputStream(xml.getBytes(StandardCharsets.US_ASCII)));
+
+        Set<Integer> positions = structure.getAttributePositions().get("AMT");
+        assertEquals(Collections.singleton(1), positions);
+        assertUnmodifiable(() -> positions.add(2));
+    }
+
+    private static void assertUnmodifiable(Runnable change) {
+        try {
+            change.run();
+            fail("expected the structure to be frozen");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+}
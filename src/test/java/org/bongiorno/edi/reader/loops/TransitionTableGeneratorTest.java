@@ -0,0 +1,101 @@
+package org.bongiorno.edi.reader.loops;
+
+import org.bongiorno.edi.reader.tokenizer.EDITokenizer;
+import org.bongiorno.edi.reader.tokenizer.SegmentCursor;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.ToolProvider;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+
+public class TransitionTableGeneratorTest {
+
+    @ClassRule
+    public static final TemporaryFolder TEMP = new TemporaryFolder();
+
+    private static Path classes;
+
+    @BeforeClass
+    public static void generate() throws Exception {
+        assumeNotNull(ToolProvider.getSystemJavaCompiler());
+        Path sources = TEMP.newFolder("transitions").toPath();
+        classes = sources.resolve("classes");
+        for (String name : new String[]{"edi834", "edi837"}) {
+            Path source = TransitionTableGenerator.write(sources, name, load(name).getTransitionTable());
+            TransitionTableGenerator.compile(Collections.singletonList(source), classes);
+        }
+    }
+
+    @Test
+    public void testClassName() {
+        assertEquals("Edi837Transitions", TransitionTableGenerator.className("edi837"));
+        assertEquals("MyLoopsTransitions", TransitionTableGenerator.className("my-loops"));
+        assertEquals("edi837", TransitionTableGenerator.structureName("edi837.xml"));
+    }
+
+    @Test
+    public void testGeneratedMatchesTable() throws Exception {
+        compare("edi837", "/837/837I_TC3.dat");
+        compare("edi837", "/837/837i.dat");
+        compare("edi834", "/834/834-2Tx.dat");
+    }
+
+    @Test
+    public void testStaleCodeIgnored() throws Exception {
+        TransitionTable table = load("edi837").getTransitionTable();
+        assertFalse(table.use(generated("edi834")));
+        assertFalse(table.isGenerated());
+        assertTrue(table.use(generated("edi837")));
+        assertTrue(table.isGenerated());
+    }
+
+    /**
+     * Every segment of the file, tried in every state, has to lead to the same place either way.
+     */
+    private static void compare(String name, String file) throws Exception {
+        TransitionTable interpreted = load(name).getTransitionTable();
+        TransitionTable compiled = load(name).getTransitionTable();
+        assertTrue(compiled.use(generated(name)));
+
+        List<TransitionTable.State> states = interpreted.getStates();
+        try (InputStream in = TransitionTableGeneratorTest.class.getResourceAsStream(file)) {
+            SegmentCursor cursor = new EDITokenizer(in, "ISO-8859-1").cursor();
+            while (cursor.advance()) {
+                for (int i = 0; i < states.size(); ++i) {
+                    TransitionTable.Transition expected = states.get(i).transition(cursor);
+                    TransitionTable.Transition actual = compiled.getStates().get(i).transition(cursor);
+                    String where = cursor.segmentId() + " in " + states.get(i).getElementName();
+                    if (expected == null) {
+                        assertNull(where, actual);
+                    } else {
+                        assertEquals(where, expected.getIndex(), actual.getIndex());
+                        assertEquals(where, expected.getPops(), actual.getPops());
+                        assertEquals(where, expected.getTarget().getIndex(), actual.getTarget().getIndex());
+                    }
+                }
+            }
+        }
+    }
+
+    private static GeneratedTransitions generated(String name) throws Exception {
+        ClassLoader loader = new URLClassLoader(new URL[]{classes.toUri().toURL()}, TransitionTableGeneratorTest.class.getClassLoader());
+        String className = TransitionTableGenerator.PACKAGE + "." + TransitionTableGenerator.className(name);
+        return (GeneratedTransitions) loader.loadClass(className).newInstance();
+    }
+
+    private static EdiStructure load(String name) throws Exception {
+        try (InputStream loops = TransitionTableGeneratorTest.class.getResourceAsStream("/META-INF/loops/" + name + ".xml")) {
+            return EdiStructure.fromStream(loops);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.bongiorno.edi.reader.loops;
+
+import org.bongiorno.edi.reader.tokenizer.EDITokenizer;
+import org.bongiorno.edi.reader.tokenizer.SegmentCursor;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class TransitionTableTest {
+
+    private static final String ISA = "ISA*00*          *00*          *ZZ*SENDER         *ZZ*RECEIVER       *050101*0847*^*00501*000000001*1*P*:";
+
+    @Test
+    public void testTransitions() throws Exception {
+        TransitionTable table;
+        try (InputStream loops = getClass().getResourceAsStream("/META-INF/loops/edi837.xml")) {
+            table = EdiStructure.fromStream(loops).getTransitionTable();
+        }
+        SegmentCursor cursor = new EDITokenizer(new StringReader(ISA
+                + "~HL*1**20*1~NM1*85*2*BILLING~HL*2*1*22*0~NM1*IL*1*DOE~CLM*A37YH556*500~LX*1~HL*3*2*99*0~")).cursor();
+        cursor.advance();
+
+        TransitionTable.State state = table.getRoot();
+        state = next(cursor, state, 0, "Loop2000A");
+        state = next(cursor, state, 0, "Loop2010AA");
+        // HL 22 closes 2010AA and 2000A
+        state = next(cursor, state, 2, "Loop2000B");
+        state = next(cursor, state, 0, "Loop2010BA");
+        // 2300 comes in through a LoopRef under 2000B
+        state = next(cursor, state, 1, "Loop2300");
+        state = next(cursor, state, 0, "Loop2400");
+        assertEquals(3, state.getDepth());
+
+        cursor.advance();
+        assertNull("no loop starts with HL 99", state.transition(cursor));
+    }
+
+    @Test
+    public void testQualifierWithoutValues() throws Exception {
+        String loops = "<X12-Structure><Loop id=\"ROOT\"><Loop name=\"1000A\"><startSegment id=\"NM1\">"
+                + "<qualifier position=\"1\"/></startSegment></Loop></Loop></X12-Structure>";
+        TransitionTable table = EdiStructure.fromStream(new ByteArrayInputStream(loops.getBytes(StandardCharsets.UTF_8))).getTransitionTable();
+        SegmentCursor cursor = new EDITokenizer(new StringReader(ISA + "~NM1*41*2*SUBMITTER~")).cursor();
+        cursor.advance();
+        assertTrue(cursor.advance());
+        assertNull("a qualifier with no values matches nothing", table.getRoot().transition(cursor));
+    }
+
+    private static TransitionTable.State next(SegmentCursor cursor, TransitionTable.State state, int pops, String loop) throws Exception {
+        assertTrue(cursor.advance());
+        TransitionTable.Transition transition = state.transition(cursor);
+        assertNotNull(cursor.segmentId(), transition);
+        assertEquals(loop, transition.getTarget().getElementName());
+        assertEquals(loop, pops, transition.getPops());
+        return transition.getTarget();
+    }
+}
@@ -0,0 +1,304 @@
+package org.bongiorno.edi.reader.tokenizer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class EDITokenizerTest {
+
+    static final String ISA = "ISA*00*          *00*          *ZZ*SENDER         *ZZ*RECEIVER       *110207*1159*^*00501*000000515*0*T*:";
+
+    @Test
+    public void testReadsDelimitersFromIsa() throws Exception {
+        EDITokenizer tokenizer = new EDITokenizer(new StringReader(ISA + "~\r\nGS*HC~"));
+        assertEquals(Character.valueOf('*'), tokenizer.getElementDelimiter());
+        assertEquals(Character.valueOf(':'), tokenizer.getCompositeDelimiter());
+        assertEquals(Character.valueOf('^'), tokenizer.getRepetitionSeparator());
+        assertEquals("~\r\n", tokenizer.getSegmentDelimiter());
+    }
+
+    @Test
+    public void testCrLfOnlyTerminator() throws Exception {
+        EDITokenizer tokenizer = new EDITokenizer(new StringReader(ISA + "\r\nGS*HC\r\nST*837\r\n"));
+        assertEquals("\r\n", tokenizer.getSegmentDelimiter());
+        assertEquals(Arrays.asList("ISA", "GS", "ST"), segmentIds(tokenizer));
+    }
+
+    @Test
+    public void testSplitsElements() throws Exception {
+        EDITokenizer tokenizer = new EDITokenizer(new StringReader(ISA + "~CLM*A37YH556*500***11:B:1*Y~"));
+        tokenizer.next();
+        List<Element> clm = tokenizer.next();
+        assertEquals(7, clm.size());
+        assertEquals("CLM", clm.get(0).toString());
+        assertEquals("", clm.get(3).toString());
+        assertEquals("", clm.get(4).toString());
+        assertTrue(clm.get(5) instanceof CompositeElement);
+        assertEquals("Y", clm.get(6).toString());
+        assertFalse(tokenizer.hasNext());
+    }
+
+    @Test
+    public void testRepeatingElement() throws Exception {
+        EDITokenizer tokenizer = new EDITokenizer(new StringReader(ISA + "~EB*1**30^33^35~"));
+        tokenizer.next();
+        Element element = tokenizer.next().get(3);
+        assertTrue(element instanceof RepeatingElement);
+        assertEquals(3, ((RepeatingElement) element).getElements().size());
+    }
+
+    @Test
+    public void testUnterminatedLastSegment() throws Exception {
+        EDITokenizer tokenizer = new EDITokenizer(new StringReader(ISA + "~IEA*1*000000515"));
+        tokenizer.next();
+        assertEquals("IEA*1*000000515", tokenizer.nextRaw());
+        assertFalse(tokenizer.hasNext());
+    }
+
+    @Test
+    public void testSkipsByteOrderMark() throws Exception {
+        EDITokenizer tokenizer = new EDITokenizer(new StringReader("\uFEFF" + ISA + "~GS*HC~"));
+        assertEquals(Arrays.asList("ISA", "GS"), segmentIds(tokenizer));
+    }
+
+    @Test
+    public void testSegmentsSpanningBufferRefills() throws Exception {
+        StringBuilder data = new StringBuilder(ISA).append("~\n");
+        for (int i = 0; i < 500; ++i) {
+            data.append("REF*").append(i).append("*VALUE").append(i).append("~\n");
+        }
+        SegmentScanner scanner = new CharSegmentScanner(new StringReader(data.toString()), 128);
+        assertTrue(scanner.advance());
+        for (int i = 0; i < 500; ++i) {
+            assertTrue(scanner.advance());
+            assertEquals(3, scanner.elementCount());
+            assertEquals(String.valueOf(i), scanner.elementString(1));
+            assertEquals("VALUE" + i, scanner.elementString(2));
+            assertEquals(data.indexOf("REF*" + i + "*"), scanner.segmentOffset());
+        }
+        assertFalse(scanner.advance());
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsNonIsaData() throws Exception {
+        new EDITokenizer(new StringReader("GS*HC*2394879*45728372*20050101*0830*64223*X*004010X096A1~"));
+    }
+
+    @Test
+    public void testSampleFile() throws Exception {
+        EDITokenizer tokenizer = new EDITokenizer(new InputStreamReader(getClass().getResourceAsStream("/837/837I_TC3.dat"), StandardCharsets.ISO_8859_1));
+        List<String> ids = segmentIds(tokenizer);
+        assertEquals("ISA", ids.get(0));
+        assertEquals("IEA", ids.get(ids.size() - 1));
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        EDITokenizer tokenizer = new EDITokenizer(new StringReader(ISA + "~NM1*IL*1*DOE~NM1*PR*2*ACME~SE*3*1~"));
+        try (Stream<List<Element>> segments = tokenizer.stream()) {
+            assertEquals(2, segments.filter(s -> s.get(0).toString().equals("NM1")).count());
+        }
+    }
+
+    @Test
+    public void testMappedFileMatchesReader() throws Exception {
+        for (String sample : Arrays.asList("/837/837I_TC3.dat", "/837/837i.dat", "/834/834-2Tx.dat")) {
+            Path file = Paths.get(getClass().getResource(sample).toURI());
+            List<String> expected = rawSegments(new EDITokenizer(Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)));
+            // a window this small has to be remapped every few segments
+            EDITokenizer mapped = new EDITokenizer(new MappedFileScanner(file, StandardCharsets.ISO_8859_1, 200));
+            assertEquals(sample, expected, rawSegments(mapped));
+        }
+    }
+
+    @Test
+    public void testChunkedFileMatchesReader() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (String sample : Arrays.asList("/837/837I_TC3.dat", "/837/837i.dat", "/834/834-2Tx.dat")) {
+                Path file = Paths.get(getClass().getResource(sample).toURI());
+                List<String> expected = segments(new EDITokenizer(Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)));
+                // chunks smaller than a segment, and boundaries landing inside the multi character delimiters
+                for (int chunkSize : new int[]{1, 7, 50, 333, 4096}) {
+                    EDITokenizer chunked = new EDITokenizer(new ChunkedFileScanner(file, StandardCharsets.ISO_8859_1, pool, chunkSize));
+                    assertEquals(sample + " in chunks of " + chunkSize, expected, segments(chunked));
+                    chunked.close();
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testChunkedFileSkipsLikeMappedFile() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (String sample : Arrays.asList("/837/837I_TC3.dat", "/834/834-2Tx.dat")) {
+                Path file = Paths.get(getClass().getResource(sample).toURI());
+                MappedFileScanner mapped = new MappedFileScanner(file, StandardCharsets.ISO_8859_1);
+                mapped.setSkip(id -> !id.equals("NM1"));
+                List<String> expected = skippedSegments(mapped);
+                for (int chunkSize : new int[]{1, 50, 4096}) {
+                    ChunkedFileScanner chunked = new ChunkedFileScanner(file, StandardCharsets.ISO_8859_1, pool, chunkSize);
+                    chunked.setSkip(id -> !id.equals("NM1"));
+                    assertEquals(sample + " in chunks of " + chunkSize, expected, skippedSegments(chunked));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testPushedChunksMatchReader() throws Exception {
+        Random random = new Random(7);
+        for (String sample : Arrays.asList("/837/837I_TC3.dat", "/837/837i.dat", "/834/834-2Tx.dat")) {
+            Path file = Paths.get(getClass().getResource(sample).toURI());
+            List<String> expected = rawSegments(new EDITokenizer(Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)));
+
+            List<String> pushed = new ArrayList<>();
+            PushTokenizer tokenizer = new PushTokenizer(StandardCharsets.ISO_8859_1,
+                    cursor -> pushed.add(((SegmentScanner) cursor).segmentString()));
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+            while (data.hasRemaining()) {
+                ByteBuffer chunk = data.slice();
+                chunk.limit(Math.min(chunk.remaining(), 1 + random.nextInt(40)));
+                data.position(data.position() + chunk.remaining());
+                tokenizer.feed(chunk);
+            }
+            tokenizer.endOfInput();
+            assertEquals(sample, expected, pushed);
+        }
+    }
+
+    @Test
+    public void testPushWaitsForTerminator() throws Exception {
+        List<String> pushed = new ArrayList<>();
+        PushTokenizer tokenizer = new PushTokenizer(StandardCharsets.US_ASCII,
+                cursor -> pushed.add(cursor.segmentId() + cursor.elementCount()));
+        tokenizer.feed(ByteBuffer.wrap((ISA + "~NM1*IL*1").getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(Arrays.asList("ISA17"), pushed);
+        tokenizer.feed(ByteBuffer.wrap("*DOE~NM1*PR".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(Arrays.asList("ISA17", "NM14"), pushed);
+        tokenizer.endOfInput();
+        assertEquals(Arrays.asList("ISA17", "NM14", "NM12"), pushed);
+    }
+
+    @Test
+    public void testByteStreamMatchesReader() throws Exception {
+        for (String sample : Arrays.asList("/837/837I_TC3.dat", "/837/837i.dat", "/834/834-2Tx.dat")) {
+            Path file = Paths.get(getClass().getResource(sample).toURI());
+            List<String> expected = segments(new EDITokenizer(Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)));
+            EDITokenizer bytes = new EDITokenizer(new StreamSegmentScanner(Files.newInputStream(file), StandardCharsets.ISO_8859_1, 128));
+            assertEquals(sample, expected, segments(bytes));
+        }
+    }
+
+    @Test
+    public void testElementChars() throws Exception {
+        byte[] data = (ISA + "~NM1*IL*1*M\u00DCLLER*DOE~").getBytes(StandardCharsets.UTF_8);
+        SegmentCursor cursor = new EDITokenizer(new ByteArrayInputStream(data), StandardCharsets.UTF_8).cursor();
+        cursor.advance();
+        cursor.advance();
+        char[] chars = new char[cursor.element(3).length()];
+        assertEquals(6, cursor.elementChars(3, chars));
+        assertEquals("M\u00DCLLER", new String(chars, 0, 6));
+        assertEquals(3, cursor.elementChars(4, chars));
+        assertEquals("DOE", new String(chars, 0, 3));
+    }
+
+    @Test
+    public void testMappedFileDecodesUtf8() throws Exception {
+        Path file = Files.createTempFile("edi", ".dat");
+        try {
+            Files.write(file, (ISA + "~NM1*IL*1*M\u00DCLLER*JOS\u00C9~").getBytes(StandardCharsets.UTF_8));
+            EDITokenizer tokenizer = EDITokenizer.open(file, StandardCharsets.UTF_8);
+            tokenizer.next();
+            List<Element> nm1 = tokenizer.next();
+            assertEquals("M\u00DCLLER", nm1.get(3).toString());
+            assertEquals("JOS\u00C9", nm1.get(4).toString());
+            tokenizer.close();
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testCursorReusesViewsAndIds() throws Exception {
+        SegmentCursor cursor = new EDITokenizer(new StringReader(ISA + "~NM1*IL*1*DOE~NM1*PR*2*ACME~")).cursor();
+        assertTrue(cursor.advance());
+        assertSame("ISA", cursor.segmentId());
+
+        assertTrue(cursor.advance());
+        String id = cursor.segmentId();
+        CharSequence qualifier = cursor.element(1);
+        assertEquals("NM1", id);
+        assertEquals("IL", qualifier.toString());
+        assertTrue(cursor.elementEquals(3, "DOE"));
+
+        assertTrue(cursor.advance());
+        assertSame(id, cursor.segmentId());
+        assertSame(qualifier, cursor.element(1));
+        assertEquals("PR", qualifier.toString());
+        assertFalse(cursor.elementEquals(3, "DOE"));
+        assertEquals(-1, cursor.elementIndexOf(3, ':'));
+        assertFalse(cursor.advance());
+    }
+
+    private static List<String> rawSegments(EDITokenizer tokenizer) {
+        List<String> result = new ArrayList<>();
+        while (tokenizer.hasNext()) {
+            result.add(tokenizer.nextRaw());
+        }
+        return result;
+    }
+
+    private static List<String> segments(EDITokenizer tokenizer) {
+        List<String> result = new ArrayList<>();
+        while (tokenizer.hasNext()) {
+            result.add(tokenizer.next().toString());
+        }
+        return result;
+    }
+
+    /**
+     * each segment's id, element count and offset, then the whole segment
+     */
+    private static List<String> skippedSegments(SegmentScanner scanner) throws IOException {
+        List<String> result = new ArrayList<>();
+        try {
+            while (scanner.advance()) {
+                result.add(scanner.segmentId() + " " + scanner.elementCount() + " " + scanner.segmentOffset() + " "
+                        + scanner.segmentString());
+            }
+        } finally {
+            scanner.close();
+        }
+        return result;
+    }
+
+    private static List<String> segmentIds(EDITokenizer tokenizer) {
+        List<String> result = new ArrayList<>();
+        for (List<Element> segment : tokenizer) {
+            result.add(segment.get(0).toString());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,45 @@
+package org.bongiorno.edi.reader.tokenizer;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class ElementTest {
+
+    @Test
+    public void testSplitMatchesRegexSplit() throws Exception {
+        for (String s : Arrays.asList("", ":", "::", "a", "a:b", ":a", "a:", "11:B:1", "HC:99213:25::::", ".:*")) {
+            assertEquals(s, Arrays.asList(s.split(Pattern.quote(":"), -1)), Element.split(s, ':'));
+        }
+    }
+
+    @Test
+    public void testCreatePicksType() throws Exception {
+        assertEquals(Element.class, Element.create("A37YH556", ':', '^').getClass());
+        assertEquals(CompositeElement.class, Element.create("11:B:1", ':', '^').getClass());
+        assertEquals(RepeatingElement.class, Element.create("30^33", ':', '^').getClass());
+        assertEquals(RepeatingElement.class, Element.create("HC:1^HC:2", ':', '^').getClass());
+    }
+
+    @Test
+    public void testCompositeIsSplitLazily() throws Exception {
+        CompositeElement element = (CompositeElement) Element.create("HC:99213:25", ':', '^');
+        assertEquals(Arrays.asList("HC", "99213", "25"), element.getParts());
+        assertSame(element.getParts(), element.getParts());
+        assertEquals("25", element.getPart(2));
+        assertEquals(element, Element.create("HC:99213:25", ':', '^'));
+        assertEquals(element.hashCode(), Element.create("HC:99213:25", ':', '^').hashCode());
+    }
+
+    @Test
+    public void testRepetitionIsSplitLazily() throws Exception {
+        RepeatingElement element = (RepeatingElement) Element.create("HC:1^30", ':', '^');
+        assertEquals(2, element.getElements().size());
+        assertTrue(element.getElements().get(0) instanceof CompositeElement);
+        assertEquals("30", element.getElements().get(1).toString());
+        assertSame(element.getElements(), element.getElements());
+    }
+}
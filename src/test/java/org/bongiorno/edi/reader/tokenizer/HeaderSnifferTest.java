@@ -0,0 +1,76 @@
+package org.bongiorno.edi.reader.tokenizer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+public class HeaderSnifferTest {
+
+    @Test
+    public void testSniffHandsPrefixBack() throws Exception {
+        byte[] data = Files.readAllBytes(Paths.get(getClass().getResource("/834/834-2Tx.dat").toURI()));
+        HeaderSniffer sniffer = new HeaderSniffer(trickle(data), StandardCharsets.ISO_8859_1);
+
+        InterchangeHeader header = sniffer.getHeader();
+        assertEquals(EDIType.FORMAT_834, header.getType());
+        assertEquals("005010X220A1", header.getVersion());
+        assertEquals("00501", header.getInterchangeVersion());
+        assertEquals("834", header.getSt().get(1));
+        assertEquals('~', header.getDelimiters().getElementDelimiter());
+        assertEquals(4, header.getSegments().size());
+
+        assertArrayEquals(data, readAll(sniffer.getInputStream()));
+    }
+
+    @Test
+    public void testSniffDecodingCharset() throws Exception {
+        String edi = new String(Files.readAllBytes(Paths.get(getClass().getResource("/834/834.dat").toURI())), StandardCharsets.ISO_8859_1);
+        byte[] data = edi.getBytes(StandardCharsets.UTF_16);
+        HeaderSniffer sniffer = new HeaderSniffer(new ByteArrayInputStream(data), StandardCharsets.UTF_16);
+        assertEquals(EDIType.FORMAT_834, sniffer.getHeader().getType());
+        assertArrayEquals(data, readAll(sniffer.getInputStream()));
+    }
+
+    @Test
+    public void testUnknownType() throws Exception {
+        byte[] data = Files.readAllBytes(Paths.get(getClass().getResource("/837/837I_TC3.dat").toURI()));
+        InterchangeHeader header = new HeaderSniffer(new ByteArrayInputStream(data), StandardCharsets.ISO_8859_1).getHeader();
+        assertNull(header.getType());
+        assertEquals("004010X096A1", header.getVersion());
+    }
+
+    /**
+     * hands out a few bytes per read, and can't be reset
+     */
+    private static InputStream trickle(byte[] data) {
+        return new FilterInputStream(new ByteArrayInputStream(data)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 7));
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
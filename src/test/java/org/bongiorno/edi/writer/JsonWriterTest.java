@@ -0,0 +1,56 @@
+package org.bongiorno.edi.writer;
+
+import org.bongiorno.edi.reader.EdiReader;
+import org.bongiorno.edi.reader.loops.StructureRegistry;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonWriterTest {
+
+    @Test
+    public void testRunsLoopsAndEscapes() throws Exception {
+        String edi = "ISA*00*          *00*          *ZZ*SENDER         *ZZ*RECEIVER       *050101*0847*^*00501*000000001*0*P*:~"
+            + "GS*HC*S*R*20050101*0830*1*X*005010X223A2~"
+            + "ST*837*0001~"
+            + "BHT*0019*00*1*20050101*0830*CH~"
+            + "HL*1**20*1~"
+            + "NM1*85*2*Say \"hi\"\\~"
+            + "HL*2*1*22*0~"
+            + "CLM*1*10***11:A:1~"
+            + "DTP*096*TM*1145~"
+            + "DTP*434*RD8*20041010~"
+            + "REF*D9*1~"
+            + "SE*10*0001~"
+            + "GE*1*1~"
+            + "IEA*1*000000001~";
+        StringWriter json = new StringWriter();
+        EdiReader reader = new EdiReader("edi837", StructureRegistry.get("edi837"));
+        reader.setContentHandler(new JsonWriter(json, reader.getConfig().getStructure()));
+        reader.parse(new InputSource(new StringReader(edi)));
+
+        // envelopes and loops are always arrays, segments only when they repeat, like the two DTPs
+        String expected = "{\"edi837\" : {\"ISA\" : [{\"segmentDelimiter\" : \"~\", \"elementDelimiter\" : \"*\""
+            + ", \"compositeDelimiter\" : \":\", \"repetitionSeparator\" : \"^\", \"ISA01\" : \"00\""
+            + ", \"ISA02\" : \"          \", \"ISA03\" : \"00\", \"ISA04\" : \"          \", \"ISA05\" : \"ZZ\""
+            + ", \"ISA06\" : \"SENDER         \", \"ISA07\" : \"ZZ\", \"ISA08\" : \"RECEIVER       \""
+            + ", \"ISA09\" : \"050101\", \"ISA10\" : \"0847\", \"ISA11\" : [\"\", \"\"], \"ISA12\" : \"00501\""
+            + ", \"ISA13\" : \"000000001\", \"ISA14\" : \"0\", \"ISA15\" : \"P\", \"ISA16\" : {\"C01\" : \"\", \"C02\" : \"\"}"
+            + ", \"GS\" : [{\"GS01\" : \"HC\", \"GS02\" : \"S\", \"GS03\" : \"R\", \"GS04\" : \"20050101\", \"GS05\" : \"0830\""
+            + ", \"GS06\" : \"1\", \"GS07\" : \"X\", \"GS08\" : \"005010X223A2\", \"ST\" : [{\"ST01\" : \"837\""
+            + ", \"ST02\" : \"0001\", \"BHT\" : {\"BHT01\" : \"0019\", \"BHT02\" : \"00\", \"BHT03\" : \"1\""
+            + ", \"BHT04\" : \"20050101\", \"BHT05\" : \"0830\", \"BHT06\" : \"CH\"}"
+            + ", \"Loop2000A\" : [{\"HL\" : {\"HL01\" : \"1\", \"HL02\" : \"\", \"HL03\" : \"20\", \"HL04\" : \"1\"}"
+            + ", \"Loop2010AA\" : [{\"NM1\" : {\"NM101\" : \"85\", \"NM102\" : \"2\", \"NM103\" : \"Say \\\"hi\\\"\\\\\"}}]}]"
+            + ", \"Loop2000B\" : [{\"HL\" : {\"HL01\" : \"2\", \"HL02\" : \"1\", \"HL03\" : \"22\", \"HL04\" : \"0\"}"
+            + ", \"Loop2300\" : [{\"CLM\" : {\"CLM01\" : \"1\", \"CLM02\" : \"10\", \"CLM03\" : \"\", \"CLM04\" : \"\""
+            + ", \"CLM05\" : {\"C01\" : \"11\", \"C02\" : \"A\", \"C03\" : \"1\"}}, \"DTP\" : [{\"DTP01\" : \"096\""
+            + ", \"DTP02\" : \"TM\", \"DTP03\" : \"1145\"}, {\"DTP01\" : \"434\", \"DTP02\" : \"RD8\""
+            + ", \"DTP03\" : \"20041010\"}], \"REF\" : {\"REF01\" : \"D9\", \"REF02\" : \"1\"}}]}]}]}]}]}}";
+        assertEquals(expected, json.toString());
+    }
+}
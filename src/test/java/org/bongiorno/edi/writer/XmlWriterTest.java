@@ -0,0 +1,65 @@
+package org.bongiorno.edi.writer;
+
+import org.bongiorno.edi.reader.EdiReader;
+import org.bongiorno.edi.reader.loops.StructureRegistry;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class XmlWriterTest {
+
+    @Test
+    public void testSameAsIdentityTransform() throws Exception {
+        String[][] samples = {{"edi837", "/837/837i.dat"}, {"edi834", "/834/834.dat"}};
+        for (String[] sample : samples) {
+            EdiReader reader = new EdiReader(sample[0], StructureRegistry.get(sample[0]));
+
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            try (InputStream style = getClass().getResourceAsStream("/identity.xslt")) {
+                TransformerFactory.newInstance("net.sf.saxon.TransformerFactoryImpl", null)
+                        .newTransformer(new StreamSource(style))
+                        .transform(new SAXSource(reader, new InputSource(getClass().getResourceAsStream(sample[1]))), new StreamResult(expected));
+            }
+
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            // a small buffer, so that it's flushed many times over
+            reader.setContentHandler(new XmlWriter(actual, 100));
+            reader.parse(new InputSource(getClass().getResourceAsStream(sample[1])));
+
+            assertEquals(expected.toString("UTF-8"), actual.toString("UTF-8"));
+        }
+    }
+
+    @Test
+    public void testEscapesAndNoIndent() throws Exception {
+        String isa = "ISA*00*          *00*          *ZZ*SENDER         *ZZ*RECEIVER       *050101*0847*^*00501*000000001*0*P*:~";
+        String edi = isa + "GS*HC*S&R*<R>*20050101~ST*837*0001~NTE*ADD*caf\u00e9 \"\ud83d\ude00\"~SE*3*0001~GE*1*1~IEA*1*000000001~";
+        EdiReader reader = new EdiReader("edi837", StructureRegistry.get("edi837"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XmlWriter writer = new XmlWriter(out);
+        writer.setIndent(0);
+        reader.setContentHandler(writer);
+        reader.parse(new InputSource(new StringReader(edi)));
+
+        String xml = out.toString("UTF-8");
+        assertFalse(xml.contains("\n"));
+        org.w3c.dom.Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals("S&R", document.getElementsByTagName("GS02").item(0).getTextContent());
+        assertEquals("<R>", document.getElementsByTagName("GS03").item(0).getTextContent());
+        assertEquals("caf\u00e9 \"\ud83d\ude00\"", document.getElementsByTagName("NTE02").item(0).getTextContent());
+        assertEquals("~", ((org.w3c.dom.Element) document.getElementsByTagName("ISA").item(0)).getAttribute("segmentDelimiter"));
+    }
+}